@@ -0,0 +1,12 @@
+package de.heckie.tinyb.bench;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// marks a benchmark whose gc.alloc.rate.norm must stay at 0, BenchmarkRunner fails the run otherwise
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface AllocationFree {
+}
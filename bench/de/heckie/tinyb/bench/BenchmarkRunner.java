@@ -0,0 +1,217 @@
+package de.heckie.tinyb.bench;
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+public class BenchmarkRunner {
+
+  private static final String USAGE = "Options: [-f regex] [-wi n] [-i n] [-t millis] [--forks n] [--save file] "
+      + "[--baseline file] [--tolerance fraction]";
+
+  private static final double ALLOCATION_SLACK_BYTES = 8.0;
+
+  public static class Measurement {
+
+    private final String name;
+    private final double opsPerSecond;
+    private final double bytesPerOp;
+    private final boolean allocationFree;
+
+    Measurement(String name, double opsPerSecond, double bytesPerOp, boolean allocationFree) {
+      this.name = name;
+      this.opsPerSecond = opsPerSecond;
+      this.bytesPerOp = bytesPerOp;
+      this.allocationFree = allocationFree;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public double getOpsPerSecond() {
+      return opsPerSecond;
+    }
+
+    public double getNanosPerOp() {
+      return opsPerSecond > 0 ? 1e9 / opsPerSecond : Double.NaN;
+    }
+
+    public double getBytesPerOp() {
+      return bytesPerOp;
+    }
+
+    public boolean isAllocationFree() {
+      return allocationFree;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%-40s %14.1f ops/s %12.1f ns/op %10.1f B/op", name, opsPerSecond, getNanosPerOp(),
+          bytesPerOp);
+    }
+
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(run(null, args) > 0 ? 1 : 0);
+  }
+
+  // runs the JMH benchmarks of the given class, or all benchmarks when it is null, with the gc profiler and
+  // returns the number of allocation gate failures and regressions against the baseline
+  public static int run(Class<?> benchmarks, String[] args) throws Exception {
+
+    String filter = ".*";
+    int warmup = -1;
+    int iterations = -1;
+    long time = -1;
+    int forks = -1;
+    String save = null;
+    String baseline = null;
+    double tolerance = 0.2;
+
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+      case "-f":
+        filter = args[++i];
+        break;
+      case "-wi":
+        warmup = Integer.parseInt(args[++i]);
+        break;
+      case "-i":
+        iterations = Integer.parseInt(args[++i]);
+        break;
+      case "-t":
+        time = Long.parseLong(args[++i]);
+        break;
+      case "--forks":
+        forks = Integer.parseInt(args[++i]);
+        break;
+      case "--save":
+        save = args[++i];
+        break;
+      case "--baseline":
+        baseline = args[++i];
+        break;
+      case "--tolerance":
+        tolerance = Double.parseDouble(args[++i]);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown option " + args[i] + ". " + USAGE);
+      }
+    }
+
+    String include = benchmarks != null ? Pattern.quote(benchmarks.getName() + ".") + ".*(" + filter + ").*"
+        : filter;
+    ChainedOptionsBuilder options = new OptionsBuilder().include(include).addProfiler(GCProfiler.class);
+    if (warmup >= 0) {
+      options.warmupIterations(warmup);
+    }
+    if (iterations >= 0) {
+      options.measurementIterations(iterations);
+    }
+    if (time >= 0) {
+      options.warmupTime(TimeValue.milliseconds(time)).measurementTime(TimeValue.milliseconds(time));
+    }
+    if (forks >= 0) {
+      options.forks(forks);
+    }
+
+    Collection<RunResult> runResults = new Runner(options.build()).run();
+
+    List<Measurement> results = new ArrayList<>();
+    for (RunResult runResult : runResults) {
+      results.add(measurement(runResult));
+    }
+
+    int failures = 0;
+    System.out.println();
+    for (Measurement result : results) {
+      System.out.println(result);
+      if (result.isAllocationFree() && result.getBytesPerOp() >= 1.0) {
+        System.out.println(String.format("ALLOCATION %s: %.1f B/op, expected 0", result.getName(),
+            result.getBytesPerOp()));
+        failures++;
+      }
+    }
+
+    if (save != null) {
+      save(results, save);
+    }
+
+    if (baseline != null) {
+      failures += compare(results, baseline, tolerance);
+    }
+    return failures;
+  }
+
+  private static Measurement measurement(RunResult runResult) throws ClassNotFoundException {
+    String benchmark = runResult.getParams().getBenchmark();
+    int dot = benchmark.lastIndexOf('.');
+    String name = benchmark.substring(dot + 1);
+    boolean allocationFree = false;
+    for (Method method : Class.forName(benchmark.substring(0, dot)).getMethods()) {
+      if (method.getName().equals(name) && method.isAnnotationPresent(AllocationFree.class)) {
+        allocationFree = true;
+      }
+    }
+    Result<?> allocation = runResult.getSecondaryResults().get("gc.alloc.rate.norm");
+    return new Measurement(name, runResult.getPrimaryResult().getScore(),
+        allocation != null ? allocation.getScore() : Double.NaN, allocationFree);
+  }
+
+  private static void save(List<Measurement> results, String file) throws IOException {
+    Properties properties = new Properties();
+    for (Measurement result : results) {
+      properties.setProperty(result.getName() + ".ops", Double.toString(result.getOpsPerSecond()));
+      properties.setProperty(result.getName() + ".bytes", Double.toString(result.getBytesPerOp()));
+    }
+    try (Writer writer = new FileWriter(file)) {
+      properties.store(writer, "Playbulb benchmark baseline");
+    }
+  }
+
+  private static int compare(List<Measurement> results, String file, double tolerance) throws IOException {
+    Properties properties = new Properties();
+    try (Reader reader = new FileReader(file)) {
+      properties.load(reader);
+    }
+
+    int regressions = 0;
+    for (Measurement result : results) {
+      String ops = properties.getProperty(result.getName() + ".ops");
+      String bytes = properties.getProperty(result.getName() + ".bytes");
+      if (ops == null || bytes == null) {
+        continue;
+      }
+      if (result.getOpsPerSecond() < Double.parseDouble(ops) * (1.0 - tolerance)) {
+        System.out.println(String.format("REGRESSION %s: %.1f ops/s, baseline %s ops/s", result.getName(),
+            result.getOpsPerSecond(), ops));
+        regressions++;
+      }
+      if (result.getBytesPerOp() > Double.parseDouble(bytes) + ALLOCATION_SLACK_BYTES) {
+        System.out.println(String.format("REGRESSION %s: %.1f B/op, baseline %s B/op", result.getName(),
+            result.getBytesPerOp(), bytes));
+        regressions++;
+      }
+    }
+    return regressions;
+  }
+
+}
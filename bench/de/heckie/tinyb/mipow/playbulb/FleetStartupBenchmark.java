@@ -0,0 +1,56 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.heckie.tinyb.common.CharacteristicCache;
+import de.heckie.tinyb.mipow.playbulb.sim.LatencyModel;
+import de.heckie.tinyb.mipow.playbulb.sim.SimulatedPlaybulb;
+
+public class FleetStartupBenchmark {
+
+  public static void main(String[] args) throws Exception {
+
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+    long readLatency = args.length > 1 ? Long.parseLong(args[1]) : 30;
+    int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+    Path directory = Files.createTempDirectory("playbulb-startup");
+    Path layoutFile = directory.resolve("characteristics.bin");
+    Path infoFile = directory.resolve("deviceinfo.bin");
+
+    List<SimulatedPlaybulb> devices = SimulatedPlaybulb.createFleet(size);
+    for (SimulatedPlaybulb device : devices) {
+      device.setReadLatency(LatencyModel.ofMillis(readLatency, readLatency / 3));
+      device.setDiscoveryLatency(LatencyModel.ofMillis(readLatency * 4, readLatency));
+    }
+
+    for (String run : new String[] { "cold", "warm" }) {
+      CharacteristicCache cache = Playbulb.createCharacteristicCache(layoutFile);
+      DeviceInfoStore store = new DeviceInfoStore(infoFile);
+      for (SimulatedPlaybulb device : devices) {
+        device.disconnect();
+      }
+
+      long start = System.nanoTime();
+      PlaybulbFleet fleet = new PlaybulbFleet(concurrency);
+      for (SimulatedPlaybulb device : devices) {
+        fleet.add(new Playbulb(device, cache, store));
+      }
+      long constructed = System.nanoTime();
+      List<PlaybulbFleet.Result> results = fleet.apply(Playbulb::readAll);
+      long end = System.nanoTime();
+
+      long failures = results.stream().filter(r -> !r.isSuccess()).count();
+      System.out.println(String.format("%s: %d bulbs, construct=%dms, readAll=%dms, total=%dms, failures=%d, %s, %s",
+          run, size, TimeUnit.NANOSECONDS.toMillis(constructed - start),
+          TimeUnit.NANOSECONDS.toMillis(end - constructed), TimeUnit.NANOSECONDS.toMillis(end - start), failures,
+          cache, store));
+      cache.flush();
+      store.flush();
+    }
+  }
+
+}
@@ -0,0 +1,102 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.heckie.tinyb.common.LatencyHistogram;
+import de.heckie.tinyb.mipow.playbulb.gateway.Json;
+import de.heckie.tinyb.mipow.playbulb.gateway.PlaybulbGateway;
+import de.heckie.tinyb.mipow.playbulb.sim.LatencyModel;
+import de.heckie.tinyb.mipow.playbulb.sim.SimulatedPlaybulb;
+
+public class GatewayLoadBenchmark {
+
+  public static void main(String[] args) throws Exception {
+
+    PlaybulbGateway.enableNoDelay();
+
+    int size = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int total = args.length > 2 ? Integer.parseInt(args[2]) : 50000;
+    long writeLatency = args.length > 3 ? Long.parseLong(args[3]) : 30;
+
+    List<SimulatedPlaybulb> devices = SimulatedPlaybulb.createFleet(size);
+    PlaybulbGateway gateway = new PlaybulbGateway(new InetSocketAddress("127.0.0.1", 0),
+        Runtime.getRuntime().availableProcessors());
+    for (SimulatedPlaybulb device : devices) {
+      device.setLatency(LatencyModel.ofMillis(writeLatency, writeLatency / 3));
+      gateway.add(new Playbulb(device));
+    }
+    gateway.start();
+
+    String base = "http://127.0.0.1:" + gateway.getPort();
+    HttpClient client = HttpClient.newBuilder().executor(Executors.newFixedThreadPool(4, r -> {
+      Thread thread = new Thread(r, "gateway-load");
+      thread.setDaemon(true);
+      return thread;
+    })).build();
+
+    // reads are served from the snapshot, commands go through the coalescing per-bulb queues
+    Semaphore inFlight = new Semaphore(concurrency);
+    LatencyHistogram reads = new LatencyHistogram();
+    LatencyHistogram writes = new LatencyHistogram();
+    LatencyHistogram batches = new LatencyHistogram();
+    LongAdder failures = new LongAdder();
+    long start = System.nanoTime();
+    CompletableFuture<?>[] futures = new CompletableFuture<?>[total];
+    for (int i = 0; i < total; i++) {
+      inFlight.acquire();
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      String mac = devices.get(random.nextInt(size)).getAddress();
+      int kind = random.nextInt(100);
+      HttpRequest request;
+      LatencyHistogram histogram;
+      if (kind < 70) {
+        request = HttpRequest.newBuilder(URI.create(base + "/bulbs/" + mac)).GET().build();
+        histogram = reads;
+      } else if (kind < 95) {
+        String color = String.format("{\"white\":0,\"red\":%d,\"green\":%d,\"blue\":%d}", random.nextInt(256),
+            random.nextInt(256), random.nextInt(256));
+        request = HttpRequest.newBuilder(URI.create(base + "/bulbs/" + mac + "/color"))
+            .PUT(HttpRequest.BodyPublishers.ofString(color)).build();
+        histogram = writes;
+      } else {
+        String batch = String.format(
+            "[{\"mac\":\"*\",\"color\":{\"red\":%d}},{\"mac\":\"%s\",\"effect\":{\"type\":\"PULSE\",\"delay\":20}}]",
+            random.nextInt(256), mac);
+        request = HttpRequest.newBuilder(URI.create(base + "/batch"))
+            .POST(HttpRequest.BodyPublishers.ofString(batch)).build();
+        histogram = batches;
+      }
+      long sent = System.nanoTime();
+      futures[i] = client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+        inFlight.release();
+        histogram.recordSince(sent);
+        if (e != null || response.statusCode() >= 300) {
+          failures.increment();
+        }
+      });
+    }
+    CompletableFuture.allOf(futures).handle((v, e) -> null).join();
+    long elapsed = System.nanoTime() - start;
+
+    System.out.println(String.format("%d bulbs, %d clients, %d requests in %dms (%.0f req/s), failures=%d", size,
+        concurrency, total, TimeUnit.NANOSECONDS.toMillis(elapsed), total * 1e9 / elapsed, failures.sum()));
+    System.out.println("reads:   " + reads);
+    System.out.println("writes:  " + writes);
+    System.out.println("batches: " + batches);
+    System.out.println("gateway: " + Json.toJson(gateway.getStats()));
+    gateway.close();
+  }
+
+}
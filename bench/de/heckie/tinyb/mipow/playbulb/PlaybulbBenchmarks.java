@@ -0,0 +1,241 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.heckie.tinyb.bench.AllocationFree;
+import de.heckie.tinyb.bench.BenchmarkRunner;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Color;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Effect;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.EffectType;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Randommode;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Timer;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Timers;
+import de.heckie.tinyb.mipow.playbulb.dmx.DmxReceiver;
+import de.heckie.tinyb.mipow.playbulb.sim.SimulatedPlaybulb;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlaybulbBenchmarks {
+
+  private static final byte[] COLOR_BYTES = { (byte) 0x10, (byte) 0xff, (byte) 0x80, (byte) 0x00 };
+  private static final byte[] EFFECT_BYTES = { 0x00, (byte) 0xff, 0x00, 0x00, 0x01, 0x00, 0x14, 0x00 };
+  private static final byte[] TIMER_BYTES = { 0x00, 0x07, 0x1e, 0x01, (byte) 0xff, 0x00, 0x04, (byte) 0xff, 0x00,
+      0x04, (byte) 0xff, 0x00, 0x0d, 0x25 };
+  private static final byte[] RUNNING_TIMER_BYTES = { 0x00, (byte) 0xff, 0x00, 0x00, 0x1e, 0x00, 0x00, 0x00, 0x00,
+      0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00 };
+
+  static ByteBuffer e131Packet(int universe, int slots) {
+    ByteBuffer packet = ByteBuffer.allocateDirect(126 + slots);
+    packet.putShort(0, (short) 0x0010);
+    packet.position(4);
+    packet.put("ASC-E1.17".getBytes(StandardCharsets.US_ASCII));
+    packet.putInt(18, 0x00000004);
+    packet.putInt(40, 0x00000002);
+    packet.put(108, (byte) 100);
+    packet.putShort(113, (short) universe);
+    packet.put(117, (byte) 0x02);
+    packet.put(118, (byte) 0xa1);
+    packet.putShort(121, (short) 1);
+    packet.putShort(123, (short) (slots + 1));
+    packet.clear();
+    return packet;
+  }
+
+  static ByteBuffer artNetPacket(int universe, int slots) {
+    ByteBuffer packet = ByteBuffer.allocateDirect(18 + slots);
+    packet.put("Art-Net\0".getBytes(StandardCharsets.US_ASCII));
+    packet.putShort(8, Short.reverseBytes((short) 0x5000));
+    packet.putShort(10, (short) 14);
+    packet.putShort(14, Short.reverseBytes((short) universe));
+    packet.putShort(16, (short) slots);
+    packet.clear();
+    return packet;
+  }
+
+  @State(Scope.Thread)
+  public static class Codecs {
+
+    Color color;
+    Effect effect;
+    Timer timer;
+    Randommode randommode;
+    byte[] buffer = new byte[16];
+
+    @Setup
+    public void setup() {
+      color = new Color(16, 255, 128, 0);
+      effect = new Effect(EffectType.PULSE, new Color(0, 255, 0, 0), 20);
+      timer = Timers.fromBytes(TIMER_BYTES, RUNNING_TIMER_BYTES).getTimer(0);
+      randommode = new Randommode(16, 30, 22, 30, 40, 75, new Color(255, 0, 0, 0));
+    }
+
+  }
+
+  @State(Scope.Thread)
+  public static class Bulb {
+
+    Playbulb playbulb;
+    Effect effect;
+    Color[] frames = new Color[256];
+    int frame;
+
+    @Setup
+    public void setup() {
+      playbulb = new Playbulb(new SimulatedPlaybulb("5A:50:42:00:00:01"));
+      effect = new Effect(EffectType.PULSE, new Color(0, 255, 0, 0), 20);
+      for (int i = 0; i < frames.length; i++) {
+        frames[i] = new Color(0, i, 255 - i, i / 2);
+      }
+      playbulb.setColor(frames[0]);
+    }
+
+  }
+
+  @State(Scope.Thread)
+  public static class Dmx {
+
+    DmxReceiver dmx;
+    ByteBuffer e131;
+    ByteBuffer artNet;
+    int sequence;
+
+    @Setup
+    public void setup() {
+      dmx = new DmxReceiver();
+      for (int i = 0; i < 16; i++) {
+        SimulatedPlaybulb device = new SimulatedPlaybulb(String.format("5A:50:42:00:01:%02X", i));
+        dmx.addFixture(1, 1 + i * DmxReceiver.CHANNELS, new Playbulb(device));
+        dmx.addFixture(2, 1 + i * DmxReceiver.CHANNELS, new Playbulb(device));
+      }
+      e131 = e131Packet(1, 512);
+      artNet = artNetPacket(2, 512);
+    }
+
+  }
+
+  @Benchmark
+  public Color codecColorFromBytes() {
+    return Color.fromBytes(COLOR_BYTES);
+  }
+
+  @Benchmark
+  public byte[] codecColorToBytes(Codecs codecs) {
+    return codecs.color.toBytes();
+  }
+
+  @Benchmark
+  @AllocationFree
+  public int codecRgbwDecode() {
+    return Rgbw.decode(COLOR_BYTES, 0);
+  }
+
+  @Benchmark
+  @AllocationFree
+  public byte[] codecColorEncode(Codecs codecs) {
+    codecs.color.encode(codecs.buffer, 0);
+    return codecs.buffer;
+  }
+
+  @Benchmark
+  public Effect codecEffectFromBytes() {
+    return Effect.fromBytes(EFFECT_BYTES);
+  }
+
+  @Benchmark
+  public byte[] codecEffectToBytes(Codecs codecs) {
+    return codecs.effect.toBytes();
+  }
+
+  @Benchmark
+  @AllocationFree
+  public byte[] codecEffectEncode(Codecs codecs) {
+    codecs.effect.encode(codecs.buffer, 0);
+    return codecs.buffer;
+  }
+
+  @Benchmark
+  public Timers codecTimersFromBytes() {
+    return Timers.fromBytes(TIMER_BYTES, RUNNING_TIMER_BYTES);
+  }
+
+  @Benchmark
+  public byte[] codecTimerToBytes(Codecs codecs) {
+    return codecs.timer.toBytes();
+  }
+
+  @Benchmark
+  public byte[] codecRandommodeToBytes(Codecs codecs) {
+    return codecs.randommode.toBytes();
+  }
+
+  @Benchmark
+  @AllocationFree
+  public Playbulb playbulbSetColor(Bulb bulb) {
+    bulb.playbulb.setColor(bulb.frames[bulb.frame++ & 0xff]);
+    return bulb.playbulb;
+  }
+
+  @Benchmark
+  @AllocationFree
+  public Playbulb playbulbSetEffect(Bulb bulb) {
+    bulb.playbulb.setEffect(bulb.effect);
+    return bulb.playbulb;
+  }
+
+  @Benchmark
+  @AllocationFree
+  public int playbulbGetSnapshot(Bulb bulb) {
+    return bulb.playbulb.getSnapshot().getColor().toPacked();
+  }
+
+  @Benchmark
+  public Playbulb playbulbReadAll(Bulb bulb) {
+    bulb.playbulb.readAll();
+    return bulb.playbulb;
+  }
+
+  @Benchmark
+  public int dmxE131Process(Dmx dmx) {
+    int sequence = ++dmx.sequence;
+    dmx.e131.put(111, (byte) sequence);
+    dmx.e131.put(126 + (sequence & 63), (byte) sequence);
+    return dmx.dmx.process(dmx.e131);
+  }
+
+  @Benchmark
+  public int dmxArtNetProcess(Dmx dmx) {
+    int sequence = ++dmx.sequence;
+    dmx.artNet.put(12, (byte) sequence);
+    dmx.artNet.put(18 + (sequence & 63), (byte) sequence);
+    return dmx.dmx.process(dmx.artNet);
+  }
+
+  // only the sequence moves, so every fixture is compared and nothing is handed to a stream
+  @Benchmark
+  @AllocationFree
+  public int dmxE131Unchanged(Dmx dmx) {
+    dmx.e131.put(111, (byte) ++dmx.sequence);
+    return dmx.dmx.process(dmx.e131);
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(BenchmarkRunner.run(PlaybulbBenchmarks.class, args) > 0 ? 1 : 0);
+  }
+
+}
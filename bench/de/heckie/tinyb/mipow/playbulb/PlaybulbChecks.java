@@ -0,0 +1,42 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Color;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Effect;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.EffectType;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Field;
+import de.heckie.tinyb.mipow.playbulb.sim.SimulatedPlaybulb;
+
+public class PlaybulbChecks {
+
+  private static int failures;
+
+  public static void main(String[] args) {
+
+    colorWriteTurnsEffectOff();
+
+    System.out.println(failures == 0 ? "all checks passed" : failures + " checks failed");
+    System.exit(failures > 0 ? 1 : 0);
+  }
+
+  // a color write stops the effect on the bulb, so the effect of the next apply must not be skipped
+  private static void colorWriteTurnsEffectOff() {
+    Playbulb playbulb = new Playbulb(new SimulatedPlaybulb("5A:50:42:00:00:01"));
+    Color color = new Color(0, 255, 0, 0);
+    Effect pulse = new Effect(EffectType.PULSE, color, 20);
+
+    playbulb.setEffect(pulse);
+    playbulb.setColor(color);
+    ReconcileResult result = playbulb.apply(new BulbState().withColor(color).withEffect(pulse));
+
+    check("color write turns effect off: effect written", result.getWritten().contains(Field.EFFECT));
+    check("color write turns effect off: bulb pulses", pulse.equals(playbulb.getEffect(true)));
+  }
+
+  private static void check(String name, boolean passed) {
+    System.out.println((passed ? "ok     " : "FAILED ") + name);
+    if (!passed) {
+      failures++;
+    }
+  }
+
+}
@@ -0,0 +1,251 @@
+package de.heckie.tinyb.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CharacteristicCache {
+
+  private static final int MAGIC = 0x50424343;
+  private static final int VERSION = 1;
+
+  private static class Layout {
+
+    private final String firmware;
+    private final Map<String, String> services;
+
+    Layout(String firmware, Map<String, String> services) {
+      this.firmware = firmware;
+      this.services = services;
+    }
+
+  }
+
+  private static final System.Logger LOGGER = System.getLogger(CharacteristicCache.class.getName());
+
+  private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "playbulb-cache-writer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Path file;
+  private final String firmwareCharacteristic;
+  private final Map<String, Layout> layouts = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder invalidations = new LongAdder();
+  private final LongAdder writeFailures = new LongAdder();
+  // set while layouts changed that are not written yet
+  private final AtomicBoolean dirty = new AtomicBoolean();
+
+  public CharacteristicCache(Path file, String firmwareCharacteristic) throws IOException {
+    this.file = file;
+    this.firmwareCharacteristic = firmwareCharacteristic;
+    if (file != null && Files.exists(file)) {
+      load();
+    }
+  }
+
+  public Map<String, GattCharacteristic> resolve(GattDevice device) {
+
+    String mac = device.getAddress().toUpperCase();
+    Layout layout = layouts.get(mac);
+
+    if (layout != null) {
+      Map<String, GattCharacteristic> characteristics = resolve(device, layout);
+      if (characteristics != null && Objects.equals(layout.firmware, readFirmware(characteristics))) {
+        hits.increment();
+        return characteristics;
+      }
+      invalidations.increment();
+    } else {
+      misses.increment();
+    }
+
+    Map<String, GattCharacteristic> characteristics = device.getCharacteristics();
+    if (!characteristics.isEmpty()) {
+      Map<String, String> services = new LinkedHashMap<>();
+      for (GattCharacteristic characteristic : characteristics.values()) {
+        services.put(characteristic.getUUID(), characteristic.getServiceUUID());
+      }
+      layouts.put(mac, new Layout(readFirmware(characteristics), services));
+      scheduleSave();
+    }
+    return characteristics;
+  }
+
+  public String getFirmware(String mac) {
+    Layout layout = layouts.get(mac.toUpperCase());
+    return layout != null ? layout.firmware : null;
+  }
+
+  public void invalidate(String mac) {
+    if (layouts.remove(mac.toUpperCase()) != null) {
+      scheduleSave();
+    }
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getInvalidations() {
+    return invalidations.sum();
+  }
+
+  public long getWriteFailures() {
+    return writeFailures.sum();
+  }
+
+  public int size() {
+    return layouts.size();
+  }
+
+  private static Map<String, GattCharacteristic> resolve(GattDevice device, Layout layout) {
+    Map<String, GattCharacteristic> characteristics = new HashMap<>();
+    for (Map.Entry<String, String> entry : layout.services.entrySet()) {
+      GattCharacteristic characteristic = device.findCharacteristic(entry.getValue(), entry.getKey());
+      if (characteristic == null) {
+        return null;
+      }
+      characteristics.put(entry.getKey(), characteristic);
+    }
+    return characteristics;
+  }
+
+  private String readFirmware(Map<String, GattCharacteristic> characteristics) {
+    GattCharacteristic characteristic = characteristics.get(firmwareCharacteristic);
+    if (characteristic == null) {
+      return "";
+    }
+    try {
+      return Utils.readString(characteristic);
+    } catch (GattException e) {
+      return null;
+    }
+  }
+
+  private void load() {
+    Map<String, Layout> loaded = new HashMap<>();
+    try (InputStream in = Files.newInputStream(file);
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+      if (data.readInt() != MAGIC || data.readUnsignedByte() != VERSION) {
+        return;
+      }
+      int devices = data.readInt();
+      for (int i = 0; i < devices; i++) {
+        String mac = data.readUTF();
+        String firmware = data.readUTF();
+        List<String> serviceUuids = new ArrayList<>();
+        int serviceCount = data.readUnsignedByte();
+        for (int j = 0; j < serviceCount; j++) {
+          serviceUuids.add(readUuid(data));
+        }
+        Map<String, String> services = new LinkedHashMap<>();
+        int characteristicCount = data.readUnsignedShort();
+        for (int j = 0; j < characteristicCount; j++) {
+          String serviceUuid = serviceUuids.get(data.readUnsignedByte());
+          services.put(readUuid(data), serviceUuid);
+        }
+        loaded.put(mac, new Layout(firmware, services));
+      }
+    } catch (IOException | RuntimeException e) {
+      // a truncated or corrupt cache only costs a discovery, so start cold
+      LOGGER.log(System.Logger.Level.WARNING, "Ignoring unreadable characteristic cache " + file, e);
+      return;
+    }
+    layouts.putAll(loaded);
+  }
+
+  // misses of a cold fleet start are coalesced into few writes instead of rewriting the file per device
+  private void scheduleSave() {
+    if (file != null && dirty.compareAndSet(false, true)) {
+      WRITER.execute(this::flush);
+    }
+  }
+
+  public synchronized void flush() {
+    if (dirty.getAndSet(false)) {
+      save();
+    }
+  }
+
+  private void save() {
+    try {
+      Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+      try (OutputStream out = Files.newOutputStream(tmp);
+          DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out))) {
+        Map<String, Layout> snapshot = new HashMap<>(layouts);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(snapshot.size());
+        for (Map.Entry<String, Layout> entry : snapshot.entrySet()) {
+          Layout layout = entry.getValue();
+          data.writeUTF(entry.getKey());
+          data.writeUTF(layout.firmware != null ? layout.firmware : "");
+          List<String> serviceUuids = new ArrayList<>();
+          for (String serviceUuid : layout.services.values()) {
+            if (!serviceUuids.contains(serviceUuid)) {
+              serviceUuids.add(serviceUuid);
+            }
+          }
+          data.writeByte(serviceUuids.size());
+          for (String serviceUuid : serviceUuids) {
+            writeUuid(data, serviceUuid);
+          }
+          data.writeShort(layout.services.size());
+          for (Map.Entry<String, String> service : layout.services.entrySet()) {
+            data.writeByte(serviceUuids.indexOf(service.getValue()));
+            writeUuid(data, service.getKey());
+          }
+        }
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      writeFailures.increment();
+      LOGGER.log(System.Logger.Level.WARNING, "Unable to write characteristic cache " + file, e);
+    }
+  }
+
+  private static String readUuid(DataInputStream data) throws IOException {
+    return new UUID(data.readLong(), data.readLong()).toString();
+  }
+
+  private static void writeUuid(DataOutputStream data, String uuid) throws IOException {
+    UUID value = UUID.fromString(uuid);
+    data.writeLong(value.getMostSignificantBits());
+    data.writeLong(value.getLeastSignificantBits());
+  }
+
+  @Override
+  public String toString() {
+    return String.format("CharacteristicCache(devices=%d, hits=%d, misses=%d, invalidations=%d)", size(), getHits(),
+        getMisses(), getInvalidations());
+  }
+
+}
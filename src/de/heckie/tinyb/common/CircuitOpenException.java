@@ -0,0 +1,11 @@
+package de.heckie.tinyb.common;
+
+public class CircuitOpenException extends GattException {
+
+	private static final long serialVersionUID = 1L;
+
+	public CircuitOpenException(String msg) {
+		super(msg);
+	}
+
+}
@@ -0,0 +1,67 @@
+package de.heckie.tinyb.common;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class ConnectPolicy {
+
+  public static final ConnectPolicy DEFAULT = new ConnectPolicy(Duration.ofSeconds(10), 3, Duration.ofMillis(250),
+      Duration.ofSeconds(4), 0.5);
+
+  private final Duration deadline;
+  private final int maxAttempts;
+  private final Duration initialBackoff;
+  private final Duration maxBackoff;
+  private final double jitter;
+
+  public ConnectPolicy(Duration deadline, int maxAttempts, Duration initialBackoff, Duration maxBackoff,
+      double jitter) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("At least one attempt is required");
+    }
+    if (jitter < 0.0 || jitter > 1.0) {
+      throw new IllegalArgumentException("Jitter must be between 0 and 1");
+    }
+    this.deadline = deadline;
+    this.maxAttempts = maxAttempts;
+    this.initialBackoff = initialBackoff;
+    this.maxBackoff = maxBackoff;
+    this.jitter = jitter;
+  }
+
+  public Duration getDeadline() {
+    return deadline;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public Duration getInitialBackoff() {
+    return initialBackoff;
+  }
+
+  public Duration getMaxBackoff() {
+    return maxBackoff;
+  }
+
+  public double getJitter() {
+    return jitter;
+  }
+
+  long backoffNanos(int attempt) {
+    long base = initialBackoff.toNanos();
+    long max = maxBackoff.toNanos();
+    // a shift past the leading zeros of base would overflow into a negative backoff
+    long backoff = attempt >= Long.numberOfLeadingZeros(base) ? max : Math.min(max, base << attempt);
+    double factor = 1.0 + (ThreadLocalRandom.current().nextDouble() * 2.0 - 1.0) * jitter;
+    return (long) (backoff * factor);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ConnectPolicy(deadline=%s, attempts=%d, backoff=%s..%s, jitter=%.2f)", deadline,
+        maxAttempts, initialBackoff, maxBackoff, jitter);
+  }
+
+}
@@ -0,0 +1,273 @@
+package de.heckie.tinyb.common;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import tinyb.BluetoothDevice;
+import tinyb.BluetoothManager;
+
+public class DeviceRegistry<D> {
+
+  public static final Duration DEFAULT_TTL = Duration.ofSeconds(60);
+  public static final Duration DEFAULT_MIN_REFRESH_INTERVAL = Duration.ofSeconds(1);
+
+  private static final Map<BluetoothManager, DeviceRegistry<BluetoothDevice>> MANAGERS = new ConcurrentHashMap<>();
+
+  private static final ScheduledExecutorService REFRESHER = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "device-registry");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private static class Entry<D> {
+
+    private volatile D device;
+    private volatile long lastSeen;
+
+    private Entry(D device, long lastSeen) {
+      this.device = device;
+      this.lastSeen = lastSeen;
+    }
+
+  }
+
+  private final Map<Long, Entry<D>> devices = new ConcurrentHashMap<>();
+  private final Function<D, String> address;
+  private final Supplier<? extends Collection<D>> source;
+  private final long ttlNanos;
+  private final long minRefreshNanos;
+  private final Object monitor = new Object();
+
+  private volatile long lastRefresh = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+  private ScheduledFuture<?> schedule;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder refreshes = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public DeviceRegistry(Function<D, String> address, Duration ttl) {
+    this(address, null, ttl, DEFAULT_MIN_REFRESH_INTERVAL);
+  }
+
+  public DeviceRegistry(Function<D, String> address, Supplier<? extends Collection<D>> source, Duration ttl,
+      Duration minRefreshInterval) {
+    this.address = address;
+    this.source = source;
+    this.ttlNanos = ttl.toNanos();
+    this.minRefreshNanos = minRefreshInterval.toNanos();
+  }
+
+  public static DeviceRegistry<BluetoothDevice> of(BluetoothManager manager) {
+    return MANAGERS.computeIfAbsent(manager, m -> new DeviceRegistry<>(BluetoothDevice::getAddress, m::getDevices,
+        DEFAULT_TTL, DEFAULT_MIN_REFRESH_INTERVAL));
+  }
+
+  public static long normalize(String mac) {
+    long value = 0;
+    int digits = 0;
+    for (int i = 0; i < mac.length(); i++) {
+      int digit = Character.digit(mac.charAt(i), 16);
+      if (digit >= 0) {
+        value = value << 4 | digit;
+        digits++;
+      } else if (mac.charAt(i) != ':' && mac.charAt(i) != '-') {
+        throw new IllegalArgumentException("Invalid mac " + mac);
+      }
+    }
+    if (digits != 12) {
+      throw new IllegalArgumentException("Invalid mac " + mac);
+    }
+    return value;
+  }
+
+  public static String format(long mac) {
+    return String.format("%02X:%02X:%02X:%02X:%02X:%02X", mac >>> 40 & 0xff, mac >>> 32 & 0xff, mac >>> 24 & 0xff,
+        mac >>> 16 & 0xff, mac >>> 8 & 0xff, mac & 0xff);
+  }
+
+  public void seen(D device) {
+    long key = normalize(address.apply(device));
+    long now = System.nanoTime();
+    Entry<D> entry = devices.get(key);
+    if (entry != null) {
+      // tinyb hands out a new wrapper per poll, the entry is keyed by address, so only a new address wakes waiters
+      entry.device = device;
+      entry.lastSeen = now;
+      return;
+    }
+    devices.put(key, new Entry<>(device, now));
+    synchronized (monitor) {
+      monitor.notifyAll();
+    }
+  }
+
+  public void seenAll(Collection<D> discovered) {
+    for (D device : discovered) {
+      seen(device);
+    }
+  }
+
+  public boolean refresh() {
+    if (source == null) {
+      return false;
+    }
+    lastRefresh = System.nanoTime();
+    refreshes.increment();
+    Collection<D> discovered = source.get();
+    if (discovered != null) {
+      seenAll(discovered);
+    }
+    evictExpired();
+    return true;
+  }
+
+  private void refreshIfDue() {
+    if (System.nanoTime() - lastRefresh >= minRefreshNanos) {
+      synchronized (this) {
+        if (System.nanoTime() - lastRefresh >= minRefreshNanos) {
+          refresh();
+        }
+      }
+    }
+  }
+
+  public synchronized void startRefresh(Duration interval) {
+    stopRefresh();
+    schedule = REFRESHER.scheduleWithFixedDelay(this::refresh, 0, interval.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  public synchronized void stopRefresh() {
+    if (schedule != null) {
+      schedule.cancel(false);
+      schedule = null;
+    }
+  }
+
+  public int evictExpired() {
+    long now = System.nanoTime();
+    int evicted = 0;
+    for (Map.Entry<Long, Entry<D>> e : devices.entrySet()) {
+      if (now - e.getValue().lastSeen > ttlNanos && devices.remove(e.getKey(), e.getValue())) {
+        evicted++;
+      }
+    }
+    evictions.add(evicted);
+    return evicted;
+  }
+
+  private D lookup(long key) {
+    Entry<D> entry = devices.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (System.nanoTime() - entry.lastSeen > ttlNanos) {
+      if (devices.remove(key, entry)) {
+        evictions.increment();
+      }
+      return null;
+    }
+    return entry.device;
+  }
+
+  public D find(String mac) {
+    long key = normalize(mac);
+    D device = lookup(key);
+    if (device == null) {
+      refreshIfDue();
+      device = lookup(key);
+    }
+    if (device != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+    }
+    return device;
+  }
+
+  public D get(String mac) throws DeviceNotFoundException {
+    D device = find(mac);
+    if (device == null) {
+      throw new DeviceNotFoundException("Device with mac " + mac + " not available");
+    }
+    return device;
+  }
+
+  public D waitForDevice(String mac, Duration timeout) throws DeviceNotFoundException, InterruptedException {
+    long key = normalize(mac);
+    long deadline = System.nanoTime() + timeout.toNanos();
+    D device;
+    while ((device = lookup(key)) == null) {
+      refreshIfDue();
+      long remaining = deadline - System.nanoTime();
+      if ((device = lookup(key)) != null) {
+        break;
+      }
+      if (remaining <= 0) {
+        misses.increment();
+        throw new DeviceNotFoundException("Device with mac " + mac + " not available within " + timeout);
+      }
+      synchronized (monitor) {
+        if (lookup(key) == null) {
+          long wait = source != null ? Math.min(remaining, minRefreshNanos) : remaining;
+          TimeUnit.NANOSECONDS.timedWait(monitor, Math.max(1, wait));
+        }
+      }
+    }
+    hits.increment();
+    return device;
+  }
+
+  public List<D> getDevices() {
+    List<D> result = new ArrayList<>(devices.size());
+    long now = System.nanoTime();
+    for (Entry<D> entry : devices.values()) {
+      if (now - entry.lastSeen <= ttlNanos) {
+        result.add(entry.device);
+      }
+    }
+    return result;
+  }
+
+  public void remove(String mac) {
+    devices.remove(normalize(mac));
+  }
+
+  public int size() {
+    return devices.size();
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getRefreshes() {
+    return refreshes.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("DeviceRegistry(size=%d, hits=%d, misses=%d, refreshes=%d, evictions=%d)", size(),
+        getHits(), getMisses(), getRefreshes(), getEvictions());
+  }
+
+}
@@ -0,0 +1,41 @@
+package de.heckie.tinyb.common;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+public interface GattCharacteristic {
+
+  String getUUID();
+
+  String getServiceUUID();
+
+  String[] getFlags();
+
+  byte[] readValue();
+
+  default CompletableFuture<byte[]> readValueAsync() {
+    CompletableFuture<byte[]> future = new CompletableFuture<>();
+    try {
+      future.complete(readValue());
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  boolean writeValue(byte[] value);
+
+  default boolean writeValues(List<byte[]> values) {
+    boolean success = true;
+    for (byte[] value : values) {
+      success &= writeValue(value);
+    }
+    return success;
+  }
+
+  void enableValueNotifications(Consumer<byte[]> callback);
+
+  void disableValueNotifications();
+
+}
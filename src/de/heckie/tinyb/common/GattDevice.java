@@ -0,0 +1,30 @@
+package de.heckie.tinyb.common;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+public interface GattDevice {
+
+  String getAddress();
+
+  String getName();
+
+  String getAdapterAddress();
+
+  boolean connect();
+
+  boolean disconnect();
+
+  boolean getConnected();
+
+  boolean getServicesResolved();
+
+  void enableServicesResolvedNotifications(Consumer<Boolean> callback);
+
+  void disableServicesResolvedNotifications();
+
+  Map<String, GattCharacteristic> getCharacteristics();
+
+  GattCharacteristic findCharacteristic(String serviceUuid, String characteristicUuid);
+
+}
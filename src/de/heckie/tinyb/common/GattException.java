@@ -0,0 +1,15 @@
+package de.heckie.tinyb.common;
+
+public class GattException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public GattException(String msg) {
+		super(msg);
+	}
+
+	public GattException(String msg, Throwable cause) {
+		super(msg, cause);
+	}
+
+}
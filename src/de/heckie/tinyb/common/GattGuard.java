@@ -0,0 +1,458 @@
+package de.heckie.tinyb.common;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+public class GattGuard {
+
+  public static enum State {
+    CLOSED, OPEN, HALF_OPEN
+  }
+
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+    Thread thread = new Thread(r, "playbulb-gatt-deadline");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private static final Map<String, GattGuard> GUARDS = new ConcurrentHashMap<>();
+
+  private static class Request<T> extends CompletableFuture<T> implements Runnable {
+
+    private static final int RUNNING = 0;
+    private static final int DONE = 1;
+    private static final int ABANDONED = 2;
+
+    private final Supplier<T> supplier;
+    private final Set<Request<?>> abandoned;
+    private final AtomicInteger status = new AtomicInteger(RUNNING);
+
+    Request(Supplier<T> supplier, Set<Request<?>> abandoned) {
+      this.supplier = supplier;
+      this.abandoned = abandoned;
+    }
+
+    @Override
+    public void run() {
+      T value = null;
+      Throwable failure = null;
+      try {
+        value = supplier.get();
+      } catch (Throwable e) {
+        failure = e;
+      }
+      // leave the abandoned set before completing so a caller waiting on this request sees it gone
+      if (!status.compareAndSet(RUNNING, DONE)) {
+        abandoned.remove(this);
+      }
+      if (failure != null) {
+        completeExceptionally(failure);
+      } else {
+        complete(value);
+      }
+    }
+
+    void abandon() {
+      abandoned.add(this);
+      if (!status.compareAndSet(RUNNING, ABANDONED)) {
+        abandoned.remove(this);
+      }
+    }
+
+  }
+
+  // thrown when an earlier abandoned request still occupies the link, it says nothing about the bulb itself
+  private static class BlockedException extends GattTimeoutException {
+
+    private static final long serialVersionUID = 1L;
+
+    BlockedException(String msg) {
+      super(msg);
+    }
+
+  }
+
+  private final String mac;
+  private volatile GattPolicy policy;
+
+  // breaker state is only changed under the lock, the volatile read keeps the closed path lock free
+  private volatile State state = State.CLOSED;
+  private volatile int consecutiveFailures;
+  private long openedAt;
+  private boolean probing;
+
+  // requests that ran past their deadline and have not returned yet
+  private final Set<Request<?>> abandoned = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder hedges = new LongAdder();
+  private final LongAdder hedgeWins = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder opened = new LongAdder();
+
+  public GattGuard(String mac, GattPolicy policy) {
+    this.mac = mac;
+    this.policy = policy;
+  }
+
+  public static GattGuard of(String mac) {
+    return GUARDS.computeIfAbsent(mac.toUpperCase(), m -> new GattGuard(m, GattPolicy.DEFAULT));
+  }
+
+  public static List<GattGuard> getGuards() {
+    List<GattGuard> guards = new ArrayList<>(GUARDS.values());
+    guards.sort(Comparator.comparing(GattGuard::getMac));
+    return guards;
+  }
+
+  public Map<String, GattCharacteristic> guard(Map<String, GattCharacteristic> characteristics) {
+    Map<String, GattCharacteristic> guarded = new LinkedHashMap<>();
+    for (Map.Entry<String, GattCharacteristic> e : characteristics.entrySet()) {
+      GattCharacteristic characteristic = e.getValue();
+      if (!(characteristic instanceof ResilientGattCharacteristic)) {
+        characteristic = new ResilientGattCharacteristic(characteristic, this);
+      }
+      guarded.put(e.getKey(), characteristic);
+    }
+    return guarded;
+  }
+
+  public String getMac() {
+    return mac;
+  }
+
+  public GattPolicy getPolicy() {
+    return policy;
+  }
+
+  public void setPolicy(GattPolicy policy) {
+    this.policy = policy;
+  }
+
+  <T> T call(String operation, Supplier<T> request, boolean idempotent) {
+    return call(operation, Supplier::get, request, idempotent);
+  }
+
+  // the argument is passed along so that calls without a deadline need no capturing lambda
+  <A, T> T call(String operation, Function<A, T> request, A argument, boolean idempotent) {
+    acquire(operation);
+    GattPolicy policy = this.policy;
+    GattException failure = null;
+    try {
+      for (int attempt = 0; attempt < policy.getMaxAttempts(); attempt++) {
+        if (attempt > 0) {
+          retries.increment();
+          sleep(policy.getBackoff().toNanos() << Math.min(attempt - 1, 20));
+        }
+        try {
+          T result = policy.getTimeout() == null ? request.apply(argument)
+              : attempt(operation, () -> request.apply(argument), idempotent, policy);
+          succeeded();
+          return result;
+        } catch (BlockedException e) {
+          // the request never reached the bulb, so it does not count towards the breaker
+          release();
+          throw e;
+        } catch (GattTimeoutException e) {
+          // the link handles one request at a time, a retry would only queue behind the stuck one
+          failure = e;
+          break;
+        } catch (GattException e) {
+          failure = e;
+        }
+      }
+    } catch (RuntimeException e) {
+      release();
+      throw e;
+    }
+    failed();
+    throw failure;
+  }
+
+  private <T> T attempt(String operation, Supplier<T> request, boolean idempotent, GattPolicy policy) {
+    // tinyb calls cannot be interrupted, so the caller waits on a worker and leaves it behind on timeout
+    Duration timeout = policy.getTimeout();
+    long deadline = System.nanoTime() + timeout.toNanos();
+    awaitAbandoned(operation, deadline);
+
+    Request<T> first = submit(request);
+    Request<T> second = null;
+    try {
+      Duration hedge = policy.getHedgeDelay();
+      long remaining = deadline - System.nanoTime();
+      if (!idempotent || hedge == null || hedge.toNanos() >= remaining) {
+        return first.get(remaining, TimeUnit.NANOSECONDS);
+      }
+      try {
+        return first.get(hedge.toNanos(), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        hedges.increment();
+        second = submit(request);
+      }
+
+      // the first successful response wins, a failure only counts once both requests failed
+      CompletableFuture<T> winner = new CompletableFuture<>();
+      AtomicInteger pending = new AtomicInteger(2);
+      first.whenComplete((value, e) -> race(winner, pending, value, e, false));
+      second.whenComplete((value, e) -> race(winner, pending, value, e, true));
+      T result = winner.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      first.abandon();
+      second.abandon();
+      return result;
+    } catch (TimeoutException e) {
+      first.abandon();
+      if (second != null) {
+        second.abandon();
+      }
+      timeouts.increment();
+      throw new GattTimeoutException(operation + " of " + mac + " timed out after " + timeout.toMillis() + " ms");
+    } catch (ExecutionException e) {
+      throw unwrap(operation, e.getCause());
+    } catch (InterruptedException e) {
+      first.abandon();
+      if (second != null) {
+        second.abandon();
+      }
+      Thread.currentThread().interrupt();
+      throw new GattException("Interrupted during " + operation + " of " + mac, e);
+    }
+  }
+
+  private <T> void race(CompletableFuture<T> winner, AtomicInteger pending, T value, Throwable e, boolean hedge) {
+    if (e == null) {
+      if (winner.complete(value) && hedge) {
+        hedgeWins.increment();
+      }
+    } else if (pending.decrementAndGet() == 0) {
+      winner.completeExceptionally(e);
+    }
+  }
+
+  private void awaitAbandoned(String operation, long deadline) {
+    // a request left behind still occupies the link, so wait for it within this call's own deadline
+    Iterator<Request<?>> it;
+    while ((it = abandoned.iterator()).hasNext()) {
+      Request<?> blocking = it.next();
+      try {
+        blocking.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      } catch (ExecutionException e) {
+        // the outcome belongs to the caller that abandoned it
+      } catch (TimeoutException e) {
+        timeouts.increment();
+        throw new BlockedException(operation + " of " + mac + " blocked by an earlier request that has not returned");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new GattException("Interrupted during " + operation + " of " + mac, e);
+      }
+    }
+  }
+
+  private <T> Request<T> submit(Supplier<T> supplier) {
+    Request<T> request = new Request<>(supplier, abandoned);
+    EXECUTOR.execute(request);
+    return request;
+  }
+
+  public boolean isDeadlineBound() {
+    return policy.getTimeout() != null;
+  }
+
+  private RuntimeException unwrap(String operation, Throwable cause) {
+    if (cause instanceof RuntimeException) {
+      return (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new GattException(operation + " of " + mac + " failed", cause);
+  }
+
+  <T> CompletableFuture<T> callAsync(String operation, Supplier<CompletableFuture<T>> request) {
+    try {
+      acquire(operation);
+    } catch (CircuitOpenException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    CompletableFuture<T> result = new CompletableFuture<>();
+    attemptAsync(operation, request, policy, 0, result);
+    return result;
+  }
+
+  private <T> void attemptAsync(String operation, Supplier<CompletableFuture<T>> request, GattPolicy policy,
+      int attempt, CompletableFuture<T> result) {
+    CompletableFuture<T> future;
+    try {
+      future = request.get().copy();
+    } catch (RuntimeException e) {
+      future = CompletableFuture.failedFuture(e);
+    }
+    if (policy.getTimeout() != null) {
+      future.orTimeout(policy.getTimeout().toNanos(), TimeUnit.NANOSECONDS);
+    }
+    future.whenComplete((value, e) -> {
+      if (e == null) {
+        succeeded();
+        result.complete(value);
+        return;
+      }
+      Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+      if (cause instanceof TimeoutException) {
+        timeouts.increment();
+        failed();
+        result.completeExceptionally(new GattTimeoutException(
+            operation + " of " + mac + " timed out after " + policy.getTimeout().toMillis() + " ms"));
+      } else if (!(cause instanceof GattException)) {
+        release();
+        result.completeExceptionally(cause);
+      } else if (attempt + 1 < policy.getMaxAttempts()) {
+        retries.increment();
+        CompletableFuture.delayedExecutor(policy.getBackoff().toNanos() << Math.min(attempt, 20), TimeUnit.NANOSECONDS)
+            .execute(() -> attemptAsync(operation, request, policy, attempt + 1, result));
+      } else {
+        failed();
+        result.completeExceptionally(cause);
+      }
+    });
+  }
+
+  private static void sleep(long nanos) {
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GattException("Interrupted while backing off", e);
+    }
+  }
+
+  private void acquire(String operation) {
+    calls.increment();
+    if (state == State.CLOSED) {
+      return;
+    }
+    synchronized (this) {
+      if (state == State.OPEN) {
+        if (System.nanoTime() - openedAt < policy.getOpenDuration().toNanos()) {
+          rejected.increment();
+          throw new CircuitOpenException("Circuit of " + mac + " is open, " + operation + " rejected");
+        }
+        state = State.HALF_OPEN;
+        probing = false;
+      }
+      if (state == State.HALF_OPEN) {
+        // a single probe decides whether the bulb is back
+        if (probing) {
+          rejected.increment();
+          throw new CircuitOpenException("Circuit of " + mac + " is half open, " + operation + " rejected");
+        }
+        probing = true;
+      }
+    }
+  }
+
+  private void succeeded() {
+    if (state == State.CLOSED && consecutiveFailures == 0) {
+      return;
+    }
+    synchronized (this) {
+      consecutiveFailures = 0;
+      state = State.CLOSED;
+      probing = false;
+    }
+  }
+
+  private void failed() {
+    failures.increment();
+    synchronized (this) {
+      consecutiveFailures++;
+      if (state == State.HALF_OPEN || consecutiveFailures >= policy.getFailureThreshold()) {
+        if (state != State.OPEN) {
+          opened.increment();
+        }
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        probing = false;
+      }
+    }
+  }
+
+  private synchronized void release() {
+    if (state == State.HALF_OPEN) {
+      probing = false;
+    }
+  }
+
+  public synchronized void reset() {
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+    probing = false;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  public int getStuck() {
+    return abandoned.size();
+  }
+
+  public long getCalls() {
+    return calls.sum();
+  }
+
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  public long getTimeouts() {
+    return timeouts.sum();
+  }
+
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  public long getHedges() {
+    return hedges.sum();
+  }
+
+  public long getHedgeWins() {
+    return hedgeWins.sum();
+  }
+
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  public long getOpened() {
+    return opened.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "GattGuard(mac=%s, state=%s, calls=%d, failures=%d, timeouts=%d, retries=%d, hedges=%d, rejected=%d, stuck=%d)",
+        mac, state, getCalls(), getFailures(), getTimeouts(), getRetries(), getHedges(), getRejected(), getStuck());
+  }
+
+}
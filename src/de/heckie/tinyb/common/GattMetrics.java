@@ -0,0 +1,244 @@
+package de.heckie.tinyb.common;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import de.heckie.tinyb.common.OperationMetrics.Operation;
+
+public class GattMetrics {
+
+  public static final String DOMAIN = "de.heckie.tinyb";
+
+  private static final GattMetrics DEFAULT = new GattMetrics();
+  private static final Map<String, String> NAMES = new ConcurrentHashMap<>();
+
+  private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+  private volatile boolean enabled = true;
+  private volatile MBeanServer server;
+
+  public static GattMetrics getDefault() {
+    return DEFAULT;
+  }
+
+  public static void setName(String uuid, String name) {
+    NAMES.put(uuid.toLowerCase(), name);
+  }
+
+  public static String getName(String uuid) {
+    if (uuid == null || uuid.isEmpty()) {
+      return "device";
+    }
+    return NAMES.getOrDefault(uuid.toLowerCase(), uuid.toLowerCase());
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public OperationMetrics get(String mac, String uuid, Operation operation) {
+    String characteristic = getName(uuid);
+    String key = mac + '|' + characteristic + '|' + operation;
+    OperationMetrics metrics = operations.get(key);
+    if (metrics == null) {
+      metrics = operations.computeIfAbsent(key, k -> new OperationMetrics(mac, characteristic, operation));
+      MBeanServer server = this.server;
+      if (server != null) {
+        register(server, metrics);
+      }
+    }
+    return metrics;
+  }
+
+  public Map<String, GattCharacteristic> instrument(String mac, Map<String, GattCharacteristic> characteristics) {
+    if (!enabled) {
+      return characteristics;
+    }
+    Map<String, GattCharacteristic> instrumented = new LinkedHashMap<>();
+    for (Map.Entry<String, GattCharacteristic> e : characteristics.entrySet()) {
+      GattCharacteristic characteristic = e.getValue();
+      if (!(characteristic instanceof InstrumentedGattCharacteristic)) {
+        characteristic = new InstrumentedGattCharacteristic(characteristic, mac, this);
+      }
+      instrumented.put(e.getKey(), characteristic);
+    }
+    return instrumented;
+  }
+
+  public List<OperationMetrics> getOperations() {
+    List<OperationMetrics> result = new ArrayList<>(operations.values());
+    result.sort(Comparator.comparing(OperationMetrics::getMac).thenComparing(OperationMetrics::getCharacteristic)
+        .thenComparing(OperationMetrics::getOperation));
+    return result;
+  }
+
+  public void reset() {
+    for (OperationMetrics metrics : operations.values()) {
+      metrics.reset();
+    }
+  }
+
+  public synchronized void registerMBeans() {
+    registerMBeans(ManagementFactory.getPlatformMBeanServer());
+  }
+
+  public synchronized void registerMBeans(MBeanServer server) {
+    this.server = server;
+    for (OperationMetrics metrics : operations.values()) {
+      register(server, metrics);
+    }
+  }
+
+  private static void register(MBeanServer server, OperationMetrics metrics) {
+    try {
+      ObjectName name = objectName(metrics);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(metrics, name);
+      }
+    } catch (JMException e) {
+      // concurrently registered
+    }
+  }
+
+  private static ObjectName objectName(OperationMetrics metrics) throws JMException {
+    return new ObjectName(DOMAIN + ":type=GattOperation,mac=" + ObjectName.quote(metrics.getMac())
+        + ",characteristic=" + ObjectName.quote(metrics.getCharacteristic()) + ",operation=" + metrics.getOperation());
+  }
+
+  public synchronized void unregisterMBeans() {
+    MBeanServer server = this.server;
+    this.server = null;
+    if (server == null) {
+      return;
+    }
+    for (OperationMetrics metrics : operations.values()) {
+      try {
+        ObjectName name = objectName(metrics);
+        if (server.isRegistered(name)) {
+          server.unregisterMBean(name);
+        }
+      } catch (JMException e) {
+        // already gone
+      }
+    }
+  }
+
+  public void writePrometheus(Appendable out) throws IOException {
+
+    List<OperationMetrics> metrics = getOperations();
+
+    out.append("# HELP playbulb_gatt_operation_seconds Latency of GATT operations\n");
+    out.append("# TYPE playbulb_gatt_operation_seconds summary\n");
+    for (OperationMetrics m : metrics) {
+      if (!m.isTimed()) {
+        continue;
+      }
+      LatencyHistogram latency = m.getLatency();
+      sample(out, "playbulb_gatt_operation_seconds", m, "quantile=\"0.5\"", latency.getPercentile(50) / 1e9);
+      sample(out, "playbulb_gatt_operation_seconds", m, "quantile=\"0.99\"", latency.getPercentile(99) / 1e9);
+      sample(out, "playbulb_gatt_operation_seconds_sum", m, null, latency.getSum() / 1e9);
+      sample(out, "playbulb_gatt_operation_seconds_count", m, null, latency.getCount());
+    }
+
+    out.append("# HELP playbulb_gatt_operation_max_seconds Maximum latency of GATT operations\n");
+    out.append("# TYPE playbulb_gatt_operation_max_seconds gauge\n");
+    for (OperationMetrics m : metrics) {
+      if (m.isTimed()) {
+        sample(out, "playbulb_gatt_operation_max_seconds", m, null, m.getLatency().getMax() / 1e9);
+      }
+    }
+
+    out.append("# HELP playbulb_gatt_operations_total GATT operations and received notifications\n");
+    out.append("# TYPE playbulb_gatt_operations_total counter\n");
+    for (OperationMetrics m : metrics) {
+      sample(out, "playbulb_gatt_operations_total", m, null, m.getCount());
+    }
+
+    out.append("# HELP playbulb_gatt_operation_failures_total Failed GATT operations\n");
+    out.append("# TYPE playbulb_gatt_operation_failures_total counter\n");
+    for (OperationMetrics m : metrics) {
+      sample(out, "playbulb_gatt_operation_failures_total", m, null, m.getFailures());
+    }
+
+    out.append("# HELP playbulb_gatt_operation_retries_total Retried GATT operations\n");
+    out.append("# TYPE playbulb_gatt_operation_retries_total counter\n");
+    for (OperationMetrics m : metrics) {
+      sample(out, "playbulb_gatt_operation_retries_total", m, null, m.getRetries());
+    }
+
+    out.append("# HELP playbulb_gatt_operation_bytes_total Payload bytes of GATT operations\n");
+    out.append("# TYPE playbulb_gatt_operation_bytes_total counter\n");
+    for (OperationMetrics m : metrics) {
+      sample(out, "playbulb_gatt_operation_bytes_total", m, null, m.getBytes());
+    }
+
+    List<GattGuard> guards = GattGuard.getGuards();
+    guardSamples(out, guards, "playbulb_gatt_guard_timeouts_total", "counter",
+        "GATT operations that ran past their deadline", GattGuard::getTimeouts);
+    guardSamples(out, guards, "playbulb_gatt_guard_retries_total", "counter",
+        "GATT operations retried by the guard", GattGuard::getRetries);
+    guardSamples(out, guards, "playbulb_gatt_guard_hedges_total", "counter",
+        "Hedged GATT requests", GattGuard::getHedges);
+    guardSamples(out, guards, "playbulb_gatt_guard_rejected_total", "counter",
+        "GATT operations rejected by an open circuit", GattGuard::getRejected);
+    guardSamples(out, guards, "playbulb_gatt_guard_opened_total", "counter",
+        "Times the circuit of a device opened", GattGuard::getOpened);
+    guardSamples(out, guards, "playbulb_gatt_guard_stuck", "gauge",
+        "GATT requests past their deadline that have not returned", g -> g.getStuck());
+    guardSamples(out, guards, "playbulb_gatt_guard_state", "gauge",
+        "Circuit state of a device, 0 closed, 1 open, 2 half open", g -> g.getState().ordinal());
+  }
+
+  private static void guardSamples(Appendable out, List<GattGuard> guards, String name, String type, String help,
+      ToLongFunction<GattGuard> value) throws IOException {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    for (GattGuard guard : guards) {
+      out.append(name).append("{mac=\"").append(guard.getMac()).append("\"} ")
+          .append(Long.toString(value.applyAsLong(guard))).append('\n');
+    }
+  }
+
+  private static void sample(Appendable out, String name, OperationMetrics m, String extra, double value)
+      throws IOException {
+    out.append(name).append("{mac=\"").append(m.getMac()).append("\",characteristic=\"")
+        .append(m.getCharacteristic()).append("\",operation=\"").append(m.getOperation()).append('"');
+    if (extra != null) {
+      out.append(',').append(extra);
+    }
+    out.append("} ");
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      out.append(Long.toString((long) value));
+    } else {
+      out.append(String.format(Locale.ROOT, "%.9g", value));
+    }
+    out.append('\n');
+  }
+
+  public String toPrometheus() {
+    StringBuilder sb = new StringBuilder();
+    try {
+      writePrometheus(sb);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,91 @@
+package de.heckie.tinyb.common;
+
+import java.time.Duration;
+
+public class GattPolicy {
+
+  // tinyb blocks forever on a bulb that stopped answering, so every call gets a deadline by default
+  public static final GattPolicy DEFAULT = new GattPolicy(Duration.ofSeconds(5), 2, Duration.ofMillis(100), null, 5,
+      Duration.ofSeconds(30));
+
+  // runs calls inline without a deadline, for the in-memory simulator and benchmarks
+  public static final GattPolicy UNBOUNDED = DEFAULT.withTimeout(null);
+
+  private final Duration timeout;
+  private final int maxAttempts;
+  private final Duration backoff;
+  private final Duration hedgeDelay;
+  private final int failureThreshold;
+  private final Duration openDuration;
+
+  public GattPolicy(Duration timeout, int maxAttempts, Duration backoff, Duration hedgeDelay, int failureThreshold,
+      Duration openDuration) {
+    if (maxAttempts < 1) {
+      throw new IllegalArgumentException("At least one attempt is required");
+    }
+    if (failureThreshold < 1) {
+      throw new IllegalArgumentException("The failure threshold must be at least one");
+    }
+    this.timeout = timeout;
+    this.maxAttempts = maxAttempts;
+    this.backoff = backoff;
+    this.hedgeDelay = hedgeDelay;
+    this.failureThreshold = failureThreshold;
+    this.openDuration = openDuration;
+  }
+
+  public Duration getTimeout() {
+    return timeout;
+  }
+
+  public GattPolicy withTimeout(Duration timeout) {
+    return new GattPolicy(timeout, maxAttempts, backoff, hedgeDelay, failureThreshold, openDuration);
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public GattPolicy withMaxAttempts(int maxAttempts) {
+    return new GattPolicy(timeout, maxAttempts, backoff, hedgeDelay, failureThreshold, openDuration);
+  }
+
+  public Duration getBackoff() {
+    return backoff;
+  }
+
+  public GattPolicy withBackoff(Duration backoff) {
+    return new GattPolicy(timeout, maxAttempts, backoff, hedgeDelay, failureThreshold, openDuration);
+  }
+
+  public Duration getHedgeDelay() {
+    return hedgeDelay;
+  }
+
+  public GattPolicy withHedgeDelay(Duration hedgeDelay) {
+    return new GattPolicy(timeout, maxAttempts, backoff, hedgeDelay, failureThreshold, openDuration);
+  }
+
+  public int getFailureThreshold() {
+    return failureThreshold;
+  }
+
+  public GattPolicy withFailureThreshold(int failureThreshold) {
+    return new GattPolicy(timeout, maxAttempts, backoff, hedgeDelay, failureThreshold, openDuration);
+  }
+
+  public Duration getOpenDuration() {
+    return openDuration;
+  }
+
+  public GattPolicy withOpenDuration(Duration openDuration) {
+    return new GattPolicy(timeout, maxAttempts, backoff, hedgeDelay, failureThreshold, openDuration);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("GattPolicy(timeout=%s, attempts=%d, backoff=%s, hedge=%s, threshold=%d, open=%s)", timeout,
+        maxAttempts, backoff, hedgeDelay, failureThreshold, openDuration);
+  }
+
+}
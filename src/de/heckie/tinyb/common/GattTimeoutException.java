@@ -0,0 +1,11 @@
+package de.heckie.tinyb.common;
+
+public class GattTimeoutException extends GattException {
+
+	private static final long serialVersionUID = 1L;
+
+	public GattTimeoutException(String msg) {
+		super(msg);
+	}
+
+}
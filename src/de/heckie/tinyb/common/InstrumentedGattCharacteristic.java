@@ -0,0 +1,137 @@
+package de.heckie.tinyb.common;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+public class InstrumentedGattCharacteristic implements GattCharacteristic {
+
+  private final GattCharacteristic characteristic;
+  private final String mac;
+  private final GattMetrics metrics;
+
+  private volatile OperationMetrics reads;
+  private volatile OperationMetrics writes;
+  private volatile OperationMetrics notifications;
+
+  public InstrumentedGattCharacteristic(GattCharacteristic characteristic, String mac, GattMetrics metrics) {
+    this.characteristic = characteristic;
+    this.mac = mac;
+    this.metrics = metrics;
+  }
+
+  private OperationMetrics reads() {
+    OperationMetrics reads = this.reads;
+    if (reads == null) {
+      reads = this.reads = metrics.get(mac, characteristic.getUUID(), OperationMetrics.Operation.READ);
+    }
+    return reads;
+  }
+
+  private OperationMetrics writes() {
+    OperationMetrics writes = this.writes;
+    if (writes == null) {
+      writes = this.writes = metrics.get(mac, characteristic.getUUID(), OperationMetrics.Operation.WRITE);
+    }
+    return writes;
+  }
+
+  private OperationMetrics notifications() {
+    OperationMetrics notifications = this.notifications;
+    if (notifications == null) {
+      notifications = this.notifications = metrics.get(mac, characteristic.getUUID(),
+          OperationMetrics.Operation.NOTIFY);
+    }
+    return notifications;
+  }
+
+  public GattCharacteristic getCharacteristic() {
+    return characteristic;
+  }
+
+  @Override
+  public String getUUID() {
+    return characteristic.getUUID();
+  }
+
+  @Override
+  public String getServiceUUID() {
+    return characteristic.getServiceUUID();
+  }
+
+  @Override
+  public String[] getFlags() {
+    return characteristic.getFlags();
+  }
+
+  @Override
+  public byte[] readValue() {
+    long start = System.nanoTime();
+    try {
+      byte[] value = characteristic.readValue();
+      reads().record(start, value != null, value != null ? value.length : 0);
+      return value;
+    } catch (RuntimeException e) {
+      reads().recordFailure(start);
+      throw e;
+    }
+  }
+
+  @Override
+  public CompletableFuture<byte[]> readValueAsync() {
+    long start = System.nanoTime();
+    OperationMetrics reads = reads();
+    return characteristic.readValueAsync().whenComplete((value, e) -> {
+      if (e != null) {
+        reads.recordFailure(start);
+      } else {
+        reads.record(start, value != null, value != null ? value.length : 0);
+      }
+    });
+  }
+
+  @Override
+  public boolean writeValue(byte[] value) {
+    long start = System.nanoTime();
+    try {
+      boolean success = characteristic.writeValue(value);
+      writes().record(start, success, value.length);
+      return success;
+    } catch (RuntimeException e) {
+      writes().recordFailure(start);
+      throw e;
+    }
+  }
+
+  @Override
+  public boolean writeValues(List<byte[]> values) {
+    long start = System.nanoTime();
+    int size = 0;
+    for (byte[] value : values) {
+      size += value.length;
+    }
+    try {
+      boolean success = characteristic.writeValues(values);
+      writes().record(start, success, size);
+      return success;
+    } catch (RuntimeException e) {
+      writes().recordFailure(start);
+      throw e;
+    }
+  }
+
+  @Override
+  public void enableValueNotifications(Consumer<byte[]> callback) {
+    OperationMetrics notifications = notifications();
+    characteristic.enableValueNotifications(value -> {
+      notifications.recordEvent(value != null ? value.length : 0);
+      callback.accept(value);
+    });
+  }
+
+  @Override
+  public void disableValueNotifications() {
+    characteristic.disableValueNotifications();
+  }
+
+}
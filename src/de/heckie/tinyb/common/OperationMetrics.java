@@ -0,0 +1,138 @@
+package de.heckie.tinyb.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class OperationMetrics implements OperationMetricsMXBean {
+
+  public static enum Operation {
+    CONNECT, READ, WRITE, NOTIFY
+  }
+
+  private final String mac;
+  private final String characteristic;
+  private final Operation operation;
+
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final LongAdder count = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private volatile long since = System.nanoTime();
+
+  OperationMetrics(String mac, String characteristic, Operation operation) {
+    this.mac = mac;
+    this.characteristic = characteristic;
+    this.operation = operation;
+  }
+
+  public void record(long startNanos, boolean success, int size) {
+    latency.recordSince(startNanos);
+    count.increment();
+    bytes.add(size);
+    if (!success) {
+      failures.increment();
+    }
+  }
+
+  public void recordFailure(long startNanos) {
+    latency.recordSince(startNanos);
+    count.increment();
+    failures.increment();
+  }
+
+  public void recordRetries(int count) {
+    retries.add(count);
+  }
+
+  public void recordEvent(int size) {
+    count.increment();
+    bytes.add(size);
+  }
+
+  public boolean isTimed() {
+    return operation != Operation.NOTIFY;
+  }
+
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  @Override
+  public String getMac() {
+    return mac;
+  }
+
+  @Override
+  public String getCharacteristic() {
+    return characteristic;
+  }
+
+  @Override
+  public String getOperation() {
+    return operation.name().toLowerCase();
+  }
+
+  @Override
+  public long getCount() {
+    return count.sum();
+  }
+
+  @Override
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  @Override
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  @Override
+  public long getBytes() {
+    return bytes.sum();
+  }
+
+  @Override
+  public double getThroughput() {
+    double seconds = (System.nanoTime() - since) / 1e9;
+    return seconds > 0 ? getCount() / seconds : 0;
+  }
+
+  @Override
+  public double getMeanMicros() {
+    return latency.getMean() / 1000.0;
+  }
+
+  @Override
+  public long getP50Micros() {
+    return TimeUnit.NANOSECONDS.toMicros(latency.getPercentile(50));
+  }
+
+  @Override
+  public long getP99Micros() {
+    return TimeUnit.NANOSECONDS.toMicros(latency.getPercentile(99));
+  }
+
+  @Override
+  public long getMaxMicros() {
+    return TimeUnit.NANOSECONDS.toMicros(latency.getMax());
+  }
+
+  @Override
+  public void reset() {
+    latency.reset();
+    count.reset();
+    failures.reset();
+    retries.reset();
+    bytes.reset();
+    since = System.nanoTime();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s %s %s: count=%d, failures=%d, retries=%d, %s", mac, characteristic, getOperation(),
+        getCount(), getFailures(), getRetries(), latency);
+  }
+
+}
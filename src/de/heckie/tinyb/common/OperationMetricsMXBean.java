@@ -0,0 +1,31 @@
+package de.heckie.tinyb.common;
+
+public interface OperationMetricsMXBean {
+
+  String getMac();
+
+  String getCharacteristic();
+
+  String getOperation();
+
+  long getCount();
+
+  long getFailures();
+
+  long getRetries();
+
+  long getBytes();
+
+  double getThroughput();
+
+  double getMeanMicros();
+
+  long getP50Micros();
+
+  long getP99Micros();
+
+  long getMaxMicros();
+
+  void reset();
+
+}
@@ -0,0 +1,92 @@
+package de.heckie.tinyb.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+public class ResilientGattCharacteristic implements GattCharacteristic {
+
+  private final GattCharacteristic characteristic;
+  private final GattGuard guard;
+  private final String read;
+  private final String write;
+  // bound once, so reads and writes without a deadline do not allocate per call
+  private final Supplier<byte[]> reader;
+  private final Function<byte[], Boolean> writer;
+
+  public ResilientGattCharacteristic(GattCharacteristic characteristic, GattGuard guard) {
+    this.characteristic = characteristic;
+    this.guard = guard;
+    this.read = "Reading " + GattMetrics.getName(characteristic.getUUID());
+    this.write = "Writing " + GattMetrics.getName(characteristic.getUUID());
+    this.reader = characteristic::readValue;
+    this.writer = characteristic::writeValue;
+  }
+
+  public GattCharacteristic getCharacteristic() {
+    return characteristic;
+  }
+
+  public GattGuard getGuard() {
+    return guard;
+  }
+
+  @Override
+  public String getUUID() {
+    return characteristic.getUUID();
+  }
+
+  @Override
+  public String getServiceUUID() {
+    return characteristic.getServiceUUID();
+  }
+
+  @Override
+  public String[] getFlags() {
+    return characteristic.getFlags();
+  }
+
+  @Override
+  public byte[] readValue() {
+    return guard.call(read, reader, true);
+  }
+
+  @Override
+  public CompletableFuture<byte[]> readValueAsync() {
+    return guard.callAsync(read, characteristic::readValueAsync);
+  }
+
+  @Override
+  public boolean writeValue(byte[] value) {
+    // a worker left behind on timeout must not see the caller reuse its buffer
+    byte[] bytes = guard.isDeadlineBound() ? value.clone() : value;
+    return guard.call(write, writer, bytes, false);
+  }
+
+  @Override
+  public boolean writeValues(List<byte[]> values) {
+    List<byte[]> copies = values;
+    if (guard.isDeadlineBound()) {
+      copies = new ArrayList<>(values.size());
+      for (byte[] value : values) {
+        copies.add(value.clone());
+      }
+    }
+    List<byte[]> bytes = copies;
+    return guard.call(write, () -> characteristic.writeValues(bytes), false);
+  }
+
+  @Override
+  public void enableValueNotifications(Consumer<byte[]> callback) {
+    characteristic.enableValueNotifications(callback);
+  }
+
+  @Override
+  public void disableValueNotifications() {
+    characteristic.disableValueNotifications();
+  }
+
+}
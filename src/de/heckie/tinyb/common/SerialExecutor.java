@@ -0,0 +1,76 @@
+package de.heckie.tinyb.common;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SerialExecutor implements Executor {
+
+  private static final int BATCH_SIZE = 64;
+
+  private final Executor executor;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pending = new AtomicInteger();
+
+  public SerialExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    tasks.add(task);
+    if (pending.getAndIncrement() == 0) {
+      try {
+        executor.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        // this thread owns the drain now, running the queue here keeps it from stalling forever
+        drain();
+      }
+    }
+  }
+
+  public int getPending() {
+    return pending.get();
+  }
+
+  private void drain() {
+    while (true) {
+      for (int executed = 0; executed < BATCH_SIZE; executed++) {
+        Runnable task = tasks.poll();
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          Thread thread = Thread.currentThread();
+          thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        } catch (Error e) {
+          // the remaining tasks still need a drain before the error propagates
+          if (pending.decrementAndGet() > 0) {
+            try {
+              executor.execute(this::drain);
+            } catch (RejectedExecutionException r) {
+              // nobody else will drain, so the remaining tasks run here before the error propagates
+              try {
+                drain();
+              } catch (Error next) {
+                e.addSuppressed(next);
+              }
+            }
+          }
+          throw e;
+        }
+        if (pending.decrementAndGet() == 0) {
+          return;
+        }
+      }
+      try {
+        executor.execute(this::drain);
+        return;
+      } catch (RejectedExecutionException e) {
+        // keep draining on this thread
+      }
+    }
+  }
+
+}
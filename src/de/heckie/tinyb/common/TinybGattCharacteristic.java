@@ -0,0 +1,67 @@
+package de.heckie.tinyb.common;
+
+import java.util.function.Consumer;
+
+import tinyb.BluetoothException;
+import tinyb.BluetoothGattCharacteristic;
+
+public class TinybGattCharacteristic implements GattCharacteristic {
+
+  private final BluetoothGattCharacteristic characteristic;
+
+  public TinybGattCharacteristic(BluetoothGattCharacteristic characteristic) {
+    this.characteristic = characteristic;
+  }
+
+  @Override
+  public String getUUID() {
+    return characteristic.getUUID();
+  }
+
+  @Override
+  public String getServiceUUID() {
+    return characteristic.getService().getUUID();
+  }
+
+  @Override
+  public String[] getFlags() {
+    return characteristic.getFlags();
+  }
+
+  @Override
+  public byte[] readValue() {
+    try {
+      return characteristic.readValue();
+    } catch (BluetoothException e) {
+      throw new GattException("Reading " + getUUID() + " failed", e);
+    }
+  }
+
+  @Override
+  public boolean writeValue(byte[] value) {
+    try {
+      return characteristic.writeValue(value);
+    } catch (BluetoothException e) {
+      throw new GattException("Writing " + getUUID() + " failed", e);
+    }
+  }
+
+  @Override
+  public void enableValueNotifications(Consumer<byte[]> callback) {
+    try {
+      characteristic.enableValueNotifications(value -> callback.accept(value));
+    } catch (BluetoothException e) {
+      throw new GattException("Enabling notifications of " + getUUID() + " failed", e);
+    }
+  }
+
+  @Override
+  public void disableValueNotifications() {
+    try {
+      characteristic.disableValueNotifications();
+    } catch (BluetoothException e) {
+      throw new GattException("Disabling notifications of " + getUUID() + " failed", e);
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+package de.heckie.tinyb.common;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import tinyb.BluetoothDevice;
+import tinyb.BluetoothException;
+import tinyb.BluetoothGattCharacteristic;
+import tinyb.BluetoothGattService;
+
+public class TinybGattDevice implements GattDevice {
+
+  private static final Duration FIND_TIMEOUT = Duration.ofSeconds(1);
+
+  private final BluetoothDevice device;
+
+  public TinybGattDevice(BluetoothDevice device) {
+    this.device = device;
+  }
+
+  public BluetoothDevice getDevice() {
+    return device;
+  }
+
+  @Override
+  public String getAddress() {
+    return device.getAddress();
+  }
+
+  @Override
+  public String getName() {
+    return device.getName();
+  }
+
+  @Override
+  public String getAdapterAddress() {
+    return device.getAdapter().getAddress();
+  }
+
+  @Override
+  public boolean connect() {
+    Utils.forgetCharacteristics(getAddress());
+    try {
+      return device.connect();
+    } catch (BluetoothException e) {
+      throw new GattException("Connecting " + getAddress() + " failed", e);
+    }
+  }
+
+  @Override
+  public boolean disconnect() {
+    Utils.forgetCharacteristics(getAddress());
+    return device.disconnect();
+  }
+
+  @Override
+  public boolean getConnected() {
+    return device.getConnected();
+  }
+
+  @Override
+  public boolean getServicesResolved() {
+    return device.getServicesResolved();
+  }
+
+  @Override
+  public void enableServicesResolvedNotifications(Consumer<Boolean> callback) {
+    device.enableServicesResolvedNotifications(value -> callback.accept(value));
+  }
+
+  @Override
+  public void disableServicesResolvedNotifications() {
+    device.disableServicesResolvedNotifications();
+  }
+
+  @Override
+  public Map<String, GattCharacteristic> getCharacteristics() {
+
+    Map<String, GattCharacteristic> characteristics = device.getServices().stream()
+        .map(s -> s.getCharacteristics()).flatMap(c -> c.stream())
+        .collect(Collectors.toMap(c -> c.getUUID(), c -> new TinybGattCharacteristic(c)));
+
+    return characteristics;
+
+  }
+
+  @Override
+  public GattCharacteristic findCharacteristic(String serviceUuid, String characteristicUuid) {
+
+    BluetoothGattService service = device.find(serviceUuid, FIND_TIMEOUT);
+    if (service == null) {
+      return null;
+    }
+
+    BluetoothGattCharacteristic characteristic = service.find(characteristicUuid, FIND_TIMEOUT);
+    if (characteristic == null) {
+      return null;
+    }
+
+    return new TinybGattCharacteristic(characteristic);
+
+  }
+
+}
@@ -1,60 +1,153 @@
 package de.heckie.tinyb.common;
 
 import java.math.BigInteger;
+import java.time.Duration;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import tinyb.BluetoothDevice;
 import tinyb.BluetoothGattCharacteristic;
+import tinyb.BluetoothGattService;
 import tinyb.BluetoothManager;
 
 public class Utils {
 
-  public static BluetoothDevice getDevice(String mac, BluetoothManager manager) throws DeviceNotFoundException {
+  private static final long SERVICES_RESOLVED_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(25);
 
-    BluetoothDevice device = manager.getDevices().stream().filter(d -> d.getAddress().equalsIgnoreCase(mac))
-        .findFirst().orElse(null);
+  private static final LatencyHistogram CONNECT_TIME = new LatencyHistogram();
+  private static final LongAdder CONNECT_FAILURES = new LongAdder();
 
-    if (device == null) {
-      throw new DeviceNotFoundException("Device with mac " + mac + " not available");
-    }
+  // tinyb objects compare by their D-Bus object, so each characteristic is wrapped once per connection
+  private static final Map<BluetoothGattCharacteristic, GattCharacteristic> WRAPPED = new ConcurrentHashMap<>();
+  // a reconnect hands out new tinyb objects, so the wrappers of a device are dropped on connect and disconnect
+  private static final Map<String, Set<BluetoothGattCharacteristic>> WRAPPED_BY_DEVICE = new ConcurrentHashMap<>();
+
+  public static BluetoothDevice getDevice(String mac, BluetoothManager manager) throws DeviceNotFoundException {
 
-    return device;
+    return DeviceRegistry.of(manager).get(mac);
 
   }
 
-  public static Map<String, BluetoothGattCharacteristic> getCharacteristics(BluetoothDevice device) {
+  public static BluetoothDevice waitForDevice(String mac, BluetoothManager manager, Duration timeout)
+      throws DeviceNotFoundException, InterruptedException {
 
-    Map<String, BluetoothGattCharacteristic> characteristics = device.getServices().stream()
-        .map(s -> s.getCharacteristics()).flatMap(c -> c.stream())
-        .collect(Collectors.toMap(c -> c.getUUID(), c -> c));
+    return DeviceRegistry.of(manager).waitForDevice(mac, timeout);
 
-    return characteristics;
+  }
+
+  public static Map<String, GattCharacteristic> getCharacteristics(BluetoothDevice device) {
+    return getCharacteristics(new TinybGattDevice(device));
+  }
 
+  public static Map<String, GattCharacteristic> getCharacteristics(GattDevice device) {
+    return device.getCharacteristics();
   }
 
   public static void connect(BluetoothDevice device) throws BluetoothConnectionException {
+    connect(new TinybGattDevice(device));
+  }
+
+  public static void connect(GattDevice device) throws BluetoothConnectionException {
+    connect(device, ConnectPolicy.DEFAULT);
+  }
+
+  public static void connect(BluetoothDevice device, ConnectPolicy policy) throws BluetoothConnectionException {
+    connect(new TinybGattDevice(device), policy);
+  }
+
+  public static void connect(GattDevice device, ConnectPolicy policy) throws BluetoothConnectionException {
 
-    device.connect();
+    long start = System.nanoTime();
+    long deadline = start + policy.getDeadline().toNanos();
+    String failure = null;
+    OperationMetrics metrics = GattMetrics.getDefault().get(device.getAddress(), null,
+        OperationMetrics.Operation.CONNECT);
+    int attempt = 0;
 
     try {
-      if (!device.getConnected()) {
-        throw new BluetoothConnectionException("Unable to connect to " + device.getAddress());
-      }
-      int i = 0;
-      while (!device.getServicesResolved() && ++i < 5) {
-        Thread.sleep(1000);
+      for (; attempt < policy.getMaxAttempts(); attempt++) {
+        if (attempt > 0) {
+          long backoff = Math.min(policy.backoffNanos(attempt - 1), deadline - System.nanoTime());
+          if (backoff <= 0) {
+            break;
+          }
+          TimeUnit.NANOSECONDS.sleep(backoff);
+        }
+
+        failure = connectOnce(device, deadline);
+        if (failure == null) {
+          CONNECT_TIME.recordSince(start);
+          metrics.record(start, true, 0);
+          metrics.recordRetries(attempt);
+          return;
+        }
+        CONNECT_FAILURES.increment();
+        if (System.nanoTime() >= deadline) {
+          break;
+        }
       }
     } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      metrics.recordFailure(start);
       throw new BluetoothConnectionException("Resolving services interrupted");
     }
 
-    if (!device.getServicesResolved()) {
-      throw new BluetoothConnectionException("Resolving services failed. Timed out");
+    metrics.recordFailure(start);
+    metrics.recordRetries(Math.max(0, Math.min(attempt, policy.getMaxAttempts() - 1)));
+    throw new BluetoothConnectionException(failure != null ? failure : "Unable to connect to " + device.getAddress());
+  }
+
+  private static String connectOnce(GattDevice device, long deadline) throws InterruptedException {
+
+    CountDownLatch resolved = new CountDownLatch(1);
+    device.enableServicesResolvedNotifications(value -> {
+      if (value) {
+        resolved.countDown();
+      }
+    });
+
+    try {
+      if (!device.getConnected()) {
+        try {
+          device.connect();
+        } catch (GattException e) {
+          return e.getMessage();
+        }
+      }
+      if (!device.getConnected()) {
+        return "Unable to connect to " + device.getAddress();
+      }
+
+      while (!device.getServicesResolved()) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return "Resolving services failed. Timed out";
+        }
+        resolved.await(Math.min(remaining, SERVICES_RESOLVED_POLL_NANOS), TimeUnit.NANOSECONDS);
+      }
+      return null;
+    } finally {
+      device.disableServicesResolvedNotifications();
     }
   }
 
+  public static LatencyHistogram getConnectHistogram() {
+    return CONNECT_TIME;
+  }
+
+  public static long getConnectFailures() {
+    return CONNECT_FAILURES.sum();
+  }
+
   public static void disconnect(BluetoothDevice device) throws BluetoothConnectionException {
+    disconnect(new TinybGattDevice(device));
+  }
+
+  public static void disconnect(GattDevice device) throws BluetoothConnectionException {
 
     boolean disconnected = device.disconnect();
     if (!disconnected) {
@@ -63,21 +156,69 @@ public class Utils {
 
   }
 
+  private static GattCharacteristic guarded(BluetoothGattCharacteristic characteristic) {
+    GattCharacteristic wrapped = WRAPPED.get(characteristic);
+    if (wrapped != null) {
+      return wrapped;
+    }
+    BluetoothGattService service = characteristic.getService();
+    BluetoothDevice device = service != null ? service.getDevice() : null;
+    String mac = device != null ? device.getAddress() : null;
+    if (mac == null) {
+      return new TinybGattCharacteristic(characteristic);
+    }
+    WRAPPED_BY_DEVICE.computeIfAbsent(mac.toUpperCase(), m -> ConcurrentHashMap.newKeySet()).add(characteristic);
+    return WRAPPED.computeIfAbsent(characteristic, c -> wrap(c, mac));
+  }
+
+  // guarded and instrumented like the characteristics of a Playbulb
+  private static GattCharacteristic wrap(BluetoothGattCharacteristic characteristic, String mac) {
+    GattCharacteristic wrapped = new ResilientGattCharacteristic(new TinybGattCharacteristic(characteristic),
+        GattGuard.of(mac));
+    GattMetrics metrics = GattMetrics.getDefault();
+    return metrics.isEnabled() ? new InstrumentedGattCharacteristic(wrapped, mac, metrics) : wrapped;
+  }
+
+  static void forgetCharacteristics(String mac) {
+    Set<BluetoothGattCharacteristic> characteristics = WRAPPED_BY_DEVICE.remove(mac.toUpperCase());
+    if (characteristics != null) {
+      for (BluetoothGattCharacteristic characteristic : characteristics) {
+        WRAPPED.remove(characteristic);
+      }
+    }
+  }
+
   public static String readString(BluetoothGattCharacteristic characteristic) {
+    return readString(guarded(characteristic));
+  }
+
+  public static String readString(GattCharacteristic characteristic) {
     byte[] bytes = characteristic.readValue();
     return new String(bytes);
   }
 
   public static BigInteger readBigInteger(BluetoothGattCharacteristic characteristic) {
+    return readBigInteger(guarded(characteristic));
+  }
+
+  public static BigInteger readBigInteger(GattCharacteristic characteristic) {
     return new BigInteger(characteristic.readValue());
   }
 
   public static int readInteger(BluetoothGattCharacteristic characteristic) {
+    return readInteger(guarded(characteristic));
+  }
+
+  public static int readInteger(GattCharacteristic characteristic) {
     return readBigInteger(characteristic).intValue();
   }
 
   public static boolean writeBytes(BluetoothGattCharacteristic characteristic, byte[] bytes) {
+    return writeBytes(guarded(characteristic), bytes);
+  }
+
+  public static boolean writeBytes(GattCharacteristic characteristic, byte[] bytes) {
     return characteristic.writeValue(bytes);
   }
 
-}
\ No newline at end of file
+}
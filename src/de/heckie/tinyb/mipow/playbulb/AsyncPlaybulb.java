@@ -0,0 +1,298 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import de.heckie.tinyb.common.LatencyHistogram;
+import de.heckie.tinyb.common.SerialExecutor;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Color;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Effect;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Field;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Randommode;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Timer;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Timers;
+
+public class AsyncPlaybulb {
+
+  private static final ExecutorService GATT_EXECUTOR = Executors.newCachedThreadPool(r -> {
+    Thread thread = new Thread(r, "playbulb-gatt");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public static class CoalescingStats {
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public long getSubmitted() {
+      return submitted.sum();
+    }
+
+    public long getWritten() {
+      return written.sum();
+    }
+
+    public long getDropped() {
+      return dropped.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+      return latency;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("CoalescingStats(submitted=%d, written=%d, dropped=%d, latency=%s)", getSubmitted(),
+          getWritten(), getDropped(), latency);
+    }
+
+  }
+
+  private static class PendingWrite<T> {
+
+    private final T value;
+    private final long submittedNanos = System.nanoTime();
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    PendingWrite(T value) {
+      this.value = value;
+    }
+
+  }
+
+  private class CoalescingSlot<T> {
+
+    private class Flush implements Runnable {
+
+      private PendingWrite<T> write;
+
+      Flush(PendingWrite<T> write) {
+        this.write = write;
+      }
+
+      @Override
+      public void run() {
+        PendingWrite<T> write;
+        synchronized (AsyncPlaybulb.this) {
+          write = this.write;
+          this.write = null;
+          if (last == this) {
+            last = null;
+          }
+        }
+        if (write != null) {
+          flush(write);
+        }
+      }
+
+    }
+
+    private final CoalescingStats stats = new CoalescingStats();
+    private final BiConsumer<Playbulb, T> writer;
+
+    // the queued flush that has not started yet, guarded by the AsyncPlaybulb
+    private Flush last;
+    private long lastTicket;
+
+    CoalescingSlot(BiConsumer<Playbulb, T> writer) {
+      this.writer = writer;
+    }
+
+    CompletableFuture<Void> submit(T value) {
+      PendingWrite<T> write = new PendingWrite<>(value);
+      PendingWrite<T> previous = null;
+      stats.submitted.increment();
+      synchronized (AsyncPlaybulb.this) {
+        if (last != null) {
+          previous = last.write;
+        }
+        if (last != null && lastTicket == tail) {
+          last.write = write;
+        } else {
+          // other commands were queued after the pending value, so the new one must go behind them
+          if (last != null) {
+            last.write = null;
+          }
+          last = new Flush(write);
+          lastTicket = enqueue(last);
+        }
+      }
+      if (previous != null) {
+        // a superseded write completes together with the write that replaced it
+        stats.dropped.increment();
+        PendingWrite<T> superseded = previous;
+        write.future.whenComplete((v, e) -> {
+          if (e != null) {
+            superseded.future.completeExceptionally(e);
+          } else {
+            superseded.future.complete(null);
+          }
+        });
+      }
+      return write.future;
+    }
+
+    private void flush(PendingWrite<T> write) {
+      try {
+        writer.accept(playbulb, write.value);
+        stats.written.increment();
+        stats.latency.recordSince(write.submittedNanos);
+        write.future.complete(null);
+      } catch (Throwable e) {
+        write.future.completeExceptionally(e);
+      }
+    }
+
+  }
+
+  private final Playbulb playbulb;
+  private final SerialExecutor queue;
+  private final CoalescingSlot<Color> colorSlot = new CoalescingSlot<>(Playbulb::setColor);
+  private final CoalescingSlot<Effect> effectSlot = new CoalescingSlot<>(Playbulb::setEffect);
+  private volatile boolean coalescing;
+  // ticket of the task queued last, guarded by this
+  private long tail;
+
+  public AsyncPlaybulb(Playbulb playbulb) {
+    this(playbulb, GATT_EXECUTOR);
+  }
+
+  public AsyncPlaybulb(Playbulb playbulb, Executor executor) {
+    this.playbulb = playbulb;
+    this.queue = new SerialExecutor(executor);
+  }
+
+  public Playbulb getPlaybulb() {
+    return playbulb;
+  }
+
+  public int getQueueLength() {
+    return queue.getPending();
+  }
+
+  public boolean isCoalescing() {
+    return coalescing;
+  }
+
+  public void setCoalescing(boolean coalescing) {
+    this.coalescing = coalescing;
+  }
+
+  public CoalescingStats getColorStats() {
+    return colorSlot.stats;
+  }
+
+  public CoalescingStats getEffectStats() {
+    return effectSlot.stats;
+  }
+
+  private synchronized long enqueue(Runnable task) {
+    queue.execute(task);
+    return ++tail;
+  }
+
+  public <T> CompletableFuture<T> submit(Function<Playbulb, T> command) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    enqueue(() -> {
+      try {
+        future.complete(command.apply(playbulb));
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
+      }
+    });
+    return future;
+  }
+
+  public CompletableFuture<Void> run(Consumer<Playbulb> command) {
+    return submit(p -> {
+      command.accept(p);
+      return null;
+    });
+  }
+
+  public CompletableFuture<Playbulb> readAllAsync() {
+    return submit(p -> {
+      p.readAll();
+      return p;
+    });
+  }
+
+  public CompletableFuture<PlaybulbSnapshot> readAsync(EnumSet<Field> fields) {
+    EnumSet<Field> copy = fields.clone();
+    return submit(p -> p.read(copy));
+  }
+
+  public CompletableFuture<Color> getColorAsync(boolean force) {
+    return submit(p -> p.getColor(force));
+  }
+
+  public CompletableFuture<Void> setColorAsync(Color color) {
+    if (coalescing) {
+      return colorSlot.submit(color);
+    }
+    return run(p -> p.setColor(color));
+  }
+
+  public CompletableFuture<Effect> getEffectAsync(boolean force) {
+    return submit(p -> p.getEffect(force));
+  }
+
+  public CompletableFuture<Void> setEffectAsync(Effect effect) {
+    if (coalescing) {
+      return effectSlot.submit(effect);
+    }
+    return run(p -> p.setEffect(effect));
+  }
+
+  public CompletableFuture<Timers> getTimersAsync(boolean force) {
+    return submit(p -> p.getTimers(force));
+  }
+
+  public CompletableFuture<Void> setTimerAsync(Timer timer) {
+    return run(p -> p.setTimer(timer));
+  }
+
+  public CompletableFuture<Randommode> getRandommodeAsync(boolean force) {
+    return submit(p -> p.getRandommode(force));
+  }
+
+  public CompletableFuture<Void> setRandommodeAsync(Randommode randommode) {
+    return run(p -> p.setRandommode(randommode));
+  }
+
+  public CompletableFuture<String> getNameAsync(boolean force) {
+    return submit(p -> p.getName(force));
+  }
+
+  public CompletableFuture<Void> setNameAsync(String name) {
+    return run(p -> p.setName(name));
+  }
+
+  public CompletableFuture<String> getPinAsync(boolean force) {
+    return submit(p -> p.getPin(force));
+  }
+
+  public CompletableFuture<Void> setPinAsync(String pin) {
+    return run(p -> p.setPin(pin));
+  }
+
+  public CompletableFuture<Integer> getBatteryLevelAsync(boolean force) {
+    return submit(p -> p.getBatteryLevel(force));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("AsyncPlaybulb(playbulb=%s, queue=%d)", playbulb, getQueueLength());
+  }
+
+}
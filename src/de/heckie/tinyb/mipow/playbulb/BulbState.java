@@ -0,0 +1,95 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Color;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Effect;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Randommode;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Timer;
+
+public class BulbState {
+
+  private final Color color;
+  private final Effect effect;
+  private final Randommode randommode;
+  private final Timer[] timers;
+  private final String name;
+
+  public BulbState() {
+    this(null, null, null, new Timer[4], null);
+  }
+
+  private BulbState(Color color, Effect effect, Randommode randommode, Timer[] timers, String name) {
+    this.color = color;
+    this.effect = effect;
+    this.randommode = randommode;
+    this.timers = timers;
+    this.name = name;
+  }
+
+  public BulbState withColor(Color color) {
+    return new BulbState(color, effect, randommode, timers, name);
+  }
+
+  public BulbState withEffect(Effect effect) {
+    return new BulbState(color, effect, randommode, timers, name);
+  }
+
+  public BulbState withRandommode(Randommode randommode) {
+    return new BulbState(color, effect, randommode, timers, name);
+  }
+
+  public BulbState withTimer(Timer timer) {
+    Timer[] copy = timers.clone();
+    copy[timer.getId() % 4] = timer;
+    return new BulbState(color, effect, randommode, copy, name);
+  }
+
+  public BulbState withName(String name) {
+    return new BulbState(color, effect, randommode, timers, name);
+  }
+
+  public Color getColor() {
+    return color;
+  }
+
+  public Effect getEffect() {
+    return effect;
+  }
+
+  public Randommode getRandommode() {
+    return randommode;
+  }
+
+  public Timer getTimer(int id) {
+    return timers[id % 4];
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof BulbState)) {
+      return false;
+    }
+    BulbState other = (BulbState) obj;
+    return Objects.equals(color, other.color) && Objects.equals(effect, other.effect)
+        && Objects.equals(randommode, other.randommode) && Arrays.equals(timers, other.timers)
+        && Objects.equals(name, other.name);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(color, effect, randommode, Arrays.hashCode(timers), name);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("BulbState(name=%s, color=%s, effect=%s, randommode=%s, timers=%s)", name, color, effect,
+        randommode, Arrays.toString(timers));
+  }
+
+}
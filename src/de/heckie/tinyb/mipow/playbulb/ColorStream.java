@@ -0,0 +1,126 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import de.heckie.tinyb.common.GattException;
+import de.heckie.tinyb.common.LatencyHistogram;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Color;
+
+public class ColorStream implements AutoCloseable {
+
+  private final Playbulb playbulb;
+  private final Thread writer;
+  private final LongAdder offered = new LongAdder();
+  private final LongAdder written = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder unchanged = new LongAdder();
+  private final LatencyHistogram latency = new LatencyHistogram();
+
+  private int rgbw;
+  private long capturedNanos;
+  private boolean pending;
+  private boolean closed;
+
+  public ColorStream(Playbulb playbulb) {
+    this.playbulb = playbulb;
+    this.writer = new Thread(this::write, "playbulb-stream-" + playbulb.getAddress());
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  public synchronized void offer(int rgbw, long capturedNanos) {
+    this.rgbw = rgbw;
+    this.capturedNanos = capturedNanos;
+    this.pending = true;
+    offered.increment();
+    notifyAll();
+  }
+
+  private void write() {
+    int last = 0;
+    boolean first = true;
+    while (true) {
+      int value;
+      long captured;
+      synchronized (this) {
+        while (!pending && !closed) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (closed) {
+          return;
+        }
+        value = rgbw;
+        captured = capturedNanos;
+        pending = false;
+      }
+
+      if (!first && value == last) {
+        unchanged.increment();
+        continue;
+      }
+      try {
+        synchronized (playbulb) {
+          playbulb.setColor(Color.fromPacked(value));
+        }
+        written.increment();
+        latency.recordSince(captured);
+        last = value;
+        first = false;
+      } catch (GattException e) {
+        failed.increment();
+      } catch (RuntimeException e) {
+        // not a link problem, so report it, but keep the stream alive for the next value
+        failed.increment();
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+      }
+    }
+  }
+
+  public Playbulb getPlaybulb() {
+    return playbulb;
+  }
+
+  public long getOffered() {
+    return offered.sum();
+  }
+
+  public long getWritten() {
+    return written.sum();
+  }
+
+  public long getFailed() {
+    return failed.sum();
+  }
+
+  public long getUnchanged() {
+    return unchanged.sum();
+  }
+
+  public long getDropped() {
+    return Math.max(0, offered.sum() - written.sum() - failed.sum() - unchanged.sum());
+  }
+
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ColorStream(mac=%s, offered=%d, written=%d, dropped=%d, failed=%d, latency=%s)",
+        playbulb.getAddress(), getOffered(), getWritten(), getDropped(), getFailed(), latency);
+  }
+
+}
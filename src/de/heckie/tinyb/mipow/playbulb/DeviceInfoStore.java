@@ -0,0 +1,244 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+public class DeviceInfoStore {
+
+  private static final int MAGIC = 0x50424449;
+  private static final int VERSION = 1;
+
+  public static class DeviceInfo {
+
+    private final String serialNumber;
+    private final String firmwareRevision;
+    private final String hardwareRevision;
+    private final String softwareRevision;
+    private final String manufacturer;
+    private final BigInteger pnpId;
+
+    public DeviceInfo(String serialNumber, String firmwareRevision, String hardwareRevision,
+        String softwareRevision, String manufacturer, BigInteger pnpId) {
+      this.serialNumber = serialNumber;
+      this.firmwareRevision = firmwareRevision;
+      this.hardwareRevision = hardwareRevision;
+      this.softwareRevision = softwareRevision;
+      this.manufacturer = manufacturer;
+      this.pnpId = pnpId;
+    }
+
+    public String getSerialNumber() {
+      return serialNumber;
+    }
+
+    public String getFirmwareRevision() {
+      return firmwareRevision;
+    }
+
+    public String getHardwareRevision() {
+      return hardwareRevision;
+    }
+
+    public String getSoftwareRevision() {
+      return softwareRevision;
+    }
+
+    public String getManufacturer() {
+      return manufacturer;
+    }
+
+    public BigInteger getPnpId() {
+      return pnpId;
+    }
+
+    boolean isComplete() {
+      return serialNumber != null && firmwareRevision != null && hardwareRevision != null
+          && softwareRevision != null && manufacturer != null && pnpId != null;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof DeviceInfo)) {
+        return false;
+      }
+      DeviceInfo other = (DeviceInfo) obj;
+      return Objects.equals(serialNumber, other.serialNumber)
+          && Objects.equals(firmwareRevision, other.firmwareRevision)
+          && Objects.equals(hardwareRevision, other.hardwareRevision)
+          && Objects.equals(softwareRevision, other.softwareRevision)
+          && Objects.equals(manufacturer, other.manufacturer) && Objects.equals(pnpId, other.pnpId);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(serialNumber, firmwareRevision, hardwareRevision, softwareRevision, manufacturer, pnpId);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "DeviceInfo(serialnumber=%s, firmware=%s, hardware=%s, software=%s, manufacturer=%s, pnp=%d)",
+          serialNumber, firmwareRevision, hardwareRevision, softwareRevision, manufacturer, pnpId);
+    }
+
+  }
+
+  private static final System.Logger LOGGER = System.getLogger(DeviceInfoStore.class.getName());
+
+  private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "playbulb-deviceinfo-writer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Path file;
+  private final Map<String, DeviceInfo> devices = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder writeFailures = new LongAdder();
+  // set while devices changed that are not written yet
+  private final AtomicBoolean dirty = new AtomicBoolean();
+
+  public DeviceInfoStore(Path file) throws IOException {
+    this.file = file;
+    if (file != null && Files.exists(file)) {
+      load();
+    }
+  }
+
+  public DeviceInfo get(String mac) {
+    DeviceInfo info = devices.get(mac.toUpperCase());
+    if (info != null) {
+      hits.increment();
+    } else {
+      misses.increment();
+    }
+    return info;
+  }
+
+  public void put(String mac, DeviceInfo info) {
+    if (!info.isComplete()) {
+      return;
+    }
+    DeviceInfo previous = devices.put(mac.toUpperCase(), info);
+    if (!info.equals(previous)) {
+      scheduleSave();
+    }
+  }
+
+  public void invalidate(String mac) {
+    if (devices.remove(mac.toUpperCase()) != null) {
+      scheduleSave();
+    }
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getWriteFailures() {
+    return writeFailures.sum();
+  }
+
+  public int size() {
+    return devices.size();
+  }
+
+  private void load() {
+    Map<String, DeviceInfo> loaded = new HashMap<>();
+    try (InputStream in = Files.newInputStream(file);
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+      if (data.readInt() != MAGIC || data.readUnsignedByte() != VERSION) {
+        return;
+      }
+      int count = data.readInt();
+      for (int i = 0; i < count; i++) {
+        String mac = data.readUTF();
+        String serialNumber = data.readUTF();
+        String firmwareRevision = data.readUTF();
+        String hardwareRevision = data.readUTF();
+        String softwareRevision = data.readUTF();
+        String manufacturer = data.readUTF();
+        byte[] pnpId = new byte[data.readUnsignedByte()];
+        data.readFully(pnpId);
+        loaded.put(mac, new DeviceInfo(serialNumber, firmwareRevision, hardwareRevision, softwareRevision,
+            manufacturer, new BigInteger(pnpId)));
+      }
+    } catch (IOException | RuntimeException e) {
+      // a truncated or corrupt store only costs the device info reads, so start cold
+      LOGGER.log(System.Logger.Level.WARNING, "Ignoring unreadable device info store " + file, e);
+      return;
+    }
+    devices.putAll(loaded);
+  }
+
+  // readAll of a cold fleet start only marks the store dirty, the file is rewritten off the GATT path
+  private void scheduleSave() {
+    if (file != null && dirty.compareAndSet(false, true)) {
+      WRITER.execute(this::flush);
+    }
+  }
+
+  public synchronized void flush() {
+    if (dirty.getAndSet(false)) {
+      save();
+    }
+  }
+
+  private void save() {
+    try {
+      Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+      try (OutputStream out = Files.newOutputStream(tmp);
+          DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out))) {
+        Map<String, DeviceInfo> snapshot = new HashMap<>(devices);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(snapshot.size());
+        for (Map.Entry<String, DeviceInfo> entry : snapshot.entrySet()) {
+          DeviceInfo info = entry.getValue();
+          data.writeUTF(entry.getKey());
+          data.writeUTF(info.serialNumber);
+          data.writeUTF(info.firmwareRevision);
+          data.writeUTF(info.hardwareRevision);
+          data.writeUTF(info.softwareRevision);
+          data.writeUTF(info.manufacturer);
+          byte[] pnpId = info.pnpId.toByteArray();
+          data.writeByte(pnpId.length);
+          data.write(pnpId);
+        }
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      writeFailures.increment();
+      LOGGER.log(System.Logger.Level.WARNING, "Unable to write device info store " + file, e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("DeviceInfoStore(devices=%d, hits=%d, misses=%d)", size(), getHits(), getMisses());
+  }
+
+}
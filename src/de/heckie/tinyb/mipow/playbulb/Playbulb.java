@@ -1,15 +1,37 @@
 package de.heckie.tinyb.mipow.playbulb;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Calendar;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
+import de.heckie.tinyb.common.CharacteristicCache;
+import de.heckie.tinyb.common.GattCharacteristic;
+import de.heckie.tinyb.common.GattDevice;
+import de.heckie.tinyb.common.GattException;
+import de.heckie.tinyb.common.GattGuard;
+import de.heckie.tinyb.common.GattMetrics;
+import de.heckie.tinyb.common.GattPolicy;
+import de.heckie.tinyb.common.TinybGattDevice;
 import de.heckie.tinyb.common.Utils;
+import de.heckie.tinyb.mipow.playbulb.DeviceInfoStore.DeviceInfo;
 import tinyb.BluetoothDevice;
-import tinyb.BluetoothGattCharacteristic;
 
 public class Playbulb {
 
@@ -34,71 +56,151 @@ public class Playbulb {
   public static String CHARACTERISTIC_PLAYBULB_TIMER_SETTTINGS = "0000fffe-0000-1000-8000-00805f9b34fb";
   public static String CHARACTERISTIC_PLAYBULB_GIVEN_NAME = "0000ffff-0000-1000-8000-00805f9b34fb";
 
-  private final BluetoothDevice bulb;
-  private final Map<String, BluetoothGattCharacteristic> characteristics;
-
-  private String name;
-  private String serialNumber;
-  private String pin;
-  private Integer batteryLevel;
-  private String firmwareRevision;
-  private String hardwareRevision;
-  private String softwareRevision;
-  private String manufacturer;
-  private BigInteger pnpId;
-  private Color color;
-  private Effect effect;
-  private Timers timers;
-  private Randommode randommode;
+  static {
+    GattMetrics.setName(CHARACTERISTIC_BATTERY_LEVEL, "battery");
+    GattMetrics.setName(CHARACTERISTIC_SERIAL_NUMBER_STRING, "serial_number");
+    GattMetrics.setName(CHARACTERISTIC_FIRMWARE_REVISION_STRING, "firmware_revision");
+    GattMetrics.setName(CHARACTERISTIC_HARDWARE_REVISION_STRING, "hardware_revision");
+    GattMetrics.setName(CHARACTERISTIC_SOFTWARE_REVISION_STRING, "software_revision");
+    GattMetrics.setName(CHARACTERISTIC_MANUFACTURER_NAME_STRING, "manufacturer");
+    GattMetrics.setName(CHARACTERISTIC_PNP_ID, "pnp_id");
+    GattMetrics.setName(CHARACTERISTIC_PLAYBULB_PIN, "pin");
+    GattMetrics.setName(CHARACTERISTIC_PLAYBULB_RUNNING_TIMERS, "running_timers");
+    GattMetrics.setName(CHARACTERISTIC_PLAYBULB_RANDOM_MODE, "random_mode");
+    GattMetrics.setName(CHARACTERISTIC_PLAYBULB_EFFECT, "effect");
+    GattMetrics.setName(CHARACTERISTIC_PLAYBULB_COLOR, "color");
+    GattMetrics.setName(CHARACTERISTIC_PLAYBULB_FACTORY_RESET, "factory_reset");
+    GattMetrics.setName(CHARACTERISTIC_PLAYBULB_TIMER_SETTTINGS, "timers");
+    GattMetrics.setName(CHARACTERISTIC_PLAYBULB_GIVEN_NAME, "name");
+  }
+
+  private static final EnumSet<Field> STATIC_FIELDS = EnumSet.of(Field.SERIAL_NUMBER, Field.FIRMWARE_REVISION,
+      Field.HARDWARE_REVISION, Field.SOFTWARE_REVISION, Field.MANUFACTURER, Field.PNP_ID);
+
+  private static final Map<Field, String> FIELD_CHARACTERISTICS = new EnumMap<>(Field.class);
+
+  static {
+    FIELD_CHARACTERISTICS.put(Field.NAME, CHARACTERISTIC_PLAYBULB_GIVEN_NAME);
+    FIELD_CHARACTERISTICS.put(Field.PIN, CHARACTERISTIC_PLAYBULB_PIN);
+    FIELD_CHARACTERISTICS.put(Field.BATTERY_LEVEL, CHARACTERISTIC_BATTERY_LEVEL);
+    FIELD_CHARACTERISTICS.put(Field.SERIAL_NUMBER, CHARACTERISTIC_SERIAL_NUMBER_STRING);
+    FIELD_CHARACTERISTICS.put(Field.FIRMWARE_REVISION, CHARACTERISTIC_FIRMWARE_REVISION_STRING);
+    FIELD_CHARACTERISTICS.put(Field.HARDWARE_REVISION, CHARACTERISTIC_HARDWARE_REVISION_STRING);
+    FIELD_CHARACTERISTICS.put(Field.SOFTWARE_REVISION, CHARACTERISTIC_SOFTWARE_REVISION_STRING);
+    FIELD_CHARACTERISTICS.put(Field.MANUFACTURER, CHARACTERISTIC_MANUFACTURER_NAME_STRING);
+    FIELD_CHARACTERISTICS.put(Field.PNP_ID, CHARACTERISTIC_PNP_ID);
+    FIELD_CHARACTERISTICS.put(Field.COLOR, CHARACTERISTIC_PLAYBULB_COLOR);
+    FIELD_CHARACTERISTICS.put(Field.EFFECT, CHARACTERISTIC_PLAYBULB_EFFECT);
+    FIELD_CHARACTERISTICS.put(Field.TIMERS, CHARACTERISTIC_PLAYBULB_TIMER_SETTTINGS);
+    FIELD_CHARACTERISTICS.put(Field.RANDOMMODE, CHARACTERISTIC_PLAYBULB_RANDOM_MODE);
+  }
+
+  private final GattDevice bulb;
+  private final Map<String, GattCharacteristic> characteristics;
+  private final GattGuard guard;
+  private final DeviceInfoStore deviceInfoStore;
+
+  // reused for every color and effect write, transports copy the value before writeValue returns
+  private final byte[] colorBuffer = new byte[Rgbw.BYTES];
+  private final byte[] effectBuffer = new byte[8];
+
+  private volatile Clock clock = TimeOfDay.SYSTEM_CLOCK;
+  private volatile StateJournal journal;
+
+  private volatile PlaybulbSnapshot snapshot = PlaybulbSnapshot.EMPTY;
+
+  // color and effect writes are recorded here and published with the next snapshot that is read,
+  // so the hot write path does not allocate a snapshot per write
+  private final Object writeLock = new Object();
+  private boolean pendingColorWritten;
+  private Color pendingColor;
+  private Effect pendingEffect;
+  private long pendingTimestamp;
+  private volatile boolean pending;
+
+  private final Map<Field, GattCharacteristic> subscriptions = new EnumMap<>(Field.class);
+  private volatile BiConsumer<Field, Object> changeListener;
+
+  public static enum Field {
+    NAME, PIN, BATTERY_LEVEL, SERIAL_NUMBER, FIRMWARE_REVISION, HARDWARE_REVISION, SOFTWARE_REVISION,
+    MANUFACTURER, PNP_ID, COLOR, EFFECT, TIMERS, RANDOMMODE
+  }
 
   public static class Color {
 
-    private int white;
-    private int red;
-    private int green;
-    private int blue;
+    private final int rgbw;
 
     public Color(int white, int red, int green, int blue) {
-      this.white = white;
-      this.red = red;
-      this.green = green;
-      this.blue = blue;
+      this(Rgbw.pack(white, red, green, blue));
+    }
+
+    private Color(int rgbw) {
+      this.rgbw = rgbw;
+    }
+
+    public static Color fromPacked(int rgbw) {
+      return new Color(rgbw);
     }
 
     public static Color fromBytes(byte[] bytes) {
-      return new Color(bytes[0] & 0xff, bytes[1] & 0xff, bytes[2] & 0xff, bytes[3] & 0xff);
+      return fromBytes(bytes, 0);
+    }
+
+    public static Color fromBytes(byte[] bytes, int offset) {
+      return fromPacked(Rgbw.decode(bytes, offset));
+    }
+
+    public static Color fromBuffer(ByteBuffer buffer, int offset) {
+      return fromPacked(Rgbw.decode(buffer, offset));
+    }
+
+    public int toPacked() {
+      return rgbw;
     }
 
     public int getWhite() {
-      return white;
+      return Rgbw.white(rgbw);
     }
 
-    public void setWhite(int white) {
-      this.white = white;
+    public Color withWhite(int white) {
+      return new Color(Rgbw.pack(white, getRed(), getGreen(), getBlue()));
     }
 
     public int getRed() {
-      return red;
+      return Rgbw.red(rgbw);
     }
 
-    public void setRed(int red) {
-      this.red = red;
+    public Color withRed(int red) {
+      return new Color(Rgbw.pack(getWhite(), red, getGreen(), getBlue()));
     }
 
     public int getGreen() {
-      return green;
+      return Rgbw.green(rgbw);
     }
 
-    public void setGreen(int green) {
-      this.green = green;
+    public Color withGreen(int green) {
+      return new Color(Rgbw.pack(getWhite(), getRed(), green, getBlue()));
     }
 
     public int getBlue() {
-      return blue;
+      return Rgbw.blue(rgbw);
     }
 
-    public void setBlue(int blue) {
-      this.blue = blue;
+    public Color withBlue(int blue) {
+      return new Color(Rgbw.pack(getWhite(), getRed(), getGreen(), blue));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Color)) {
+        return false;
+      }
+      return rgbw == ((Color) obj).rgbw;
+    }
+
+    @Override
+    public int hashCode() {
+      return rgbw;
     }
 
     @Override
@@ -107,8 +209,18 @@ public class Playbulb {
           getBlue());
     }
 
+    void encode(byte[] bytes, int offset) {
+      Rgbw.encode(rgbw, bytes, offset);
+    }
+
+    void encode(ByteBuffer buffer, int offset) {
+      Rgbw.encode(rgbw, buffer, offset);
+    }
+
     byte[] toBytes() {
-      return new byte[] { (byte) white, (byte) red, (byte) green, (byte) blue };
+      byte[] bytes = new byte[Rgbw.BYTES];
+      encode(bytes, 0);
+      return bytes;
     }
 
   }
@@ -142,9 +254,9 @@ public class Playbulb {
 
   public static class Effect {
 
-    private EffectType effectType;
-    private Color color;
-    private int delay;
+    private final EffectType effectType;
+    private final Color color;
+    private final int delay;
 
     public Effect(EffectType effectType, Color color, int delay) {
       this.effectType = effectType;
@@ -153,32 +265,54 @@ public class Playbulb {
     }
 
     public static Effect fromBytes(byte[] bytes) {
-      return new Effect(EffectType.getByValue(bytes[4] & 0xff), Color.fromBytes(Arrays.copyOfRange(bytes, 0, 4)),
-          bytes[6] & 0xff);
+      return fromBytes(bytes, 0);
+    }
+
+    public static Effect fromBytes(byte[] bytes, int offset) {
+      return new Effect(EffectType.getByValue(bytes[offset + 4] & 0xff), Color.fromBytes(bytes, offset),
+          bytes[offset + 6] & 0xff);
     }
 
     public EffectType getEffectType() {
       return effectType;
     }
 
-    public void setEffectType(EffectType effectType) {
-      this.effectType = effectType;
+    public Effect withEffectType(EffectType effectType) {
+      return new Effect(effectType, color, delay);
     }
 
     public Color getColor() {
       return color;
     }
 
-    public void setColor(Color color) {
-      this.color = color;
+    public Effect withColor(Color color) {
+      return new Effect(effectType, color, delay);
     }
 
     public int getDelay() {
       return delay;
     }
 
-    public void setDelay(int delay) {
-      this.delay = delay;
+    public Effect withDelay(int delay) {
+      return new Effect(effectType, color, delay);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Effect)) {
+        return false;
+      }
+      Effect other = (Effect) obj;
+      return effectType == other.effectType && delay == other.delay && packedColor() == other.packedColor();
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(effectType, packedColor(), delay);
+    }
+
+    private int packedColor() {
+      return color != null ? color.toPacked() : 0;
     }
 
     @Override
@@ -186,18 +320,22 @@ public class Playbulb {
       return String.format("Effect(type=%s, color=%s, delay=%d", effectType.toString(), color, delay);
     }
 
+    void encode(byte[] bytes, int offset) {
+      Rgbw.encode(packedColor(), bytes, offset);
+      bytes[offset + 4] = (byte) effectType.getValue();
+      bytes[offset + 5] = 0;
+      bytes[offset + 6] = (byte) delay;
+      bytes[offset + 7] = 0;
+    }
+
     byte[] toBytes() {
-      byte[] c;
-      if (color != null) {
-        c = color.toBytes();
-      } else {
-        c = new byte[] { 0, 0, 0, 0 };
-      }
-      return new byte[] { c[0], c[1], c[2], c[3], (byte) effectType.getValue(), 0, (byte) delay, 0 };
+      byte[] bytes = new byte[8];
+      encode(bytes, 0);
+      return bytes;
     }
   }
 
-  private enum TimerType {
+  public static enum TimerType {
     WAKEUP(0), DOZE(1), OFF(2);
 
     private final int value;
@@ -221,13 +359,13 @@ public class Playbulb {
 
   public static class Timer {
 
-    private int id;
-    private boolean active;
-    private TimerType type;
-    private int startingHour;
-    private int startingMinute;
-    private int runtime;
-    private Color color;
+    private final int id;
+    private final boolean active;
+    private final TimerType type;
+    private final int startingHour;
+    private final int startingMinute;
+    private final int runtime;
+    private final Color color;
 
     public Timer(int id, boolean active, TimerType type, int startingHour, int startingMinute, int runtime,
         Color color) {
@@ -244,56 +382,71 @@ public class Playbulb {
       return id;
     }
 
-    public void setId(int id) {
-      this.id = id;
+    public Timer withId(int id) {
+      return new Timer(id, active, type, startingHour, startingMinute, runtime, color);
     }
 
     public boolean isActive() {
       return active;
     }
 
-    public void setActive(boolean active) {
-      this.active = active;
+    public Timer withActive(boolean active) {
+      return new Timer(id, active, type, startingHour, startingMinute, runtime, color);
     }
 
     public TimerType getType() {
       return type;
     }
 
-    public void setType(TimerType type) {
-      this.type = type;
+    public Timer withType(TimerType type) {
+      return new Timer(id, active, type, startingHour, startingMinute, runtime, color);
     }
 
     public int getStartingHour() {
       return startingHour;
     }
 
-    public void setStartingHour(int startingHour) {
-      this.startingHour = startingHour;
+    public Timer withStartingHour(int startingHour) {
+      return new Timer(id, active, type, startingHour, startingMinute, runtime, color);
     }
 
     public int getStartingMinute() {
       return startingMinute;
     }
 
-    public void setStartingMinute(int startingMinute) {
-      this.startingMinute = startingMinute;
+    public Timer withStartingMinute(int startingMinute) {
+      return new Timer(id, active, type, startingHour, startingMinute, runtime, color);
     }
 
     public int getRuntime() {
       return runtime;
     }
 
-    public void setRuntime(int runtime) {
-      this.runtime = runtime;
+    public Timer withRuntime(int runtime) {
+      return new Timer(id, active, type, startingHour, startingMinute, runtime, color);
     }
 
     public Color getColor() {
       return color;
     }
 
-    public void setColor(Color color) {
-      this.color = color;
+    public Timer withColor(Color color) {
+      return new Timer(id, active, type, startingHour, startingMinute, runtime, color);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Timer)) {
+        return false;
+      }
+      Timer other = (Timer) obj;
+      return id == other.id && active == other.active && type == other.type && startingHour == other.startingHour
+          && startingMinute == other.startingMinute && runtime == other.runtime && Objects.equals(color, other.color);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(id, active, type, startingHour, startingMinute, runtime, color);
     }
 
     @Override
@@ -310,27 +463,48 @@ public class Playbulb {
           type, schedule, getRuntime(), color);
     }
 
+    void encode(byte[] bytes, int offset, int secondOfDay) {
+      bytes[offset] = (byte) id;
+      bytes[offset + 1] = (byte) type.value;
+      bytes[offset + 2] = (byte) TimeOfDay.second(secondOfDay);
+      bytes[offset + 3] = (byte) TimeOfDay.minute(secondOfDay);
+      bytes[offset + 4] = (byte) TimeOfDay.hour(secondOfDay);
+      bytes[offset + 5] = (byte) (active ? 0 : -1);
+      bytes[offset + 6] = (byte) startingMinute;
+      bytes[offset + 7] = (byte) startingHour;
+      color.encode(bytes, offset + 8);
+      bytes[offset + 12] = (byte) runtime;
+    }
+
+    static Timer fromBytes(byte[] bytes, int offset) {
+      // runtime is unsigned, hour and minute stay signed so 0xff keeps reading as the unset -1
+      return new Timer(bytes[offset], bytes[offset + 5] != -1, TimerType.getByValue(bytes[offset + 1]),
+          bytes[offset + 7], bytes[offset + 6], bytes[offset + 12] & 0xff, Color.fromBytes(bytes, offset + 8));
+    }
+
     byte[] toBytes() {
-      Calendar calendar = Calendar.getInstance();
-      int currentSecond = calendar.get(Calendar.SECOND);
-      int currentMinute = calendar.get(Calendar.MINUTE);
-      int currentHour = calendar.get(Calendar.HOUR_OF_DAY);
+      return toBytes(TimeOfDay.SYSTEM_CLOCK);
+    }
 
-      byte[] c = color.toBytes();
-      return new byte[] { (byte) id, (byte) type.value, (byte) currentSecond, (byte) currentMinute,
-          (byte) currentHour, (byte) (active ? 0 : -1), (byte) startingMinute, (byte) startingHour, c[0],
-          c[1], c[2], c[3], (byte) runtime };
+    byte[] toBytes(Clock clock) {
+      byte[] bytes = new byte[13];
+      encode(bytes, 0, TimeOfDay.secondOfDay(clock));
+      return bytes;
     }
   }
 
   public static class Timers {
 
-    private Timer[] timers;
-    private int currentHour;
-    private int currentMinute;
+    private final Timer[] timers;
+    private final int currentHour;
+    private final int currentMinute;
 
     private Timers(int currentHour, int currentMinute) {
-      this.timers = new Timer[] { null, null, null, null };
+      this(new Timer[] { null, null, null, null }, currentHour, currentMinute);
+    }
+
+    private Timers(Timer[] timers, int currentHour, int currentMinute) {
+      this.timers = timers;
       this.currentHour = currentHour;
       this.currentMinute = currentMinute;
     }
@@ -341,9 +515,9 @@ public class Playbulb {
 
       for (int i = 0; i < 4; i++) {
         TimerType type = TimerType.getByValue(bytesTimer[0 + i * 3]);
-        Color color = Color.fromBytes(Arrays.copyOfRange(bytesEffect, 0 + i * 5, 4 + i * 5));
+        Color color = Color.fromBytes(bytesEffect, i * 5);
         timers.timers[i] = new Timer(i, (bytesTimer[1 + i * 3] != -1), type, bytesTimer[1 + i * 3],
-            bytesTimer[2 + i * 3], bytesEffect[4 + i * 5], color);
+            bytesTimer[2 + i * 3], bytesEffect[4 + i * 5] & 0xff, color);
       }
 
       return timers;
@@ -354,8 +528,21 @@ public class Playbulb {
       return timers[id];
     }
 
-    public void setTimer(Timer timer) {
+    public Timers withTimer(Timer timer) {
+      Timer[] timers = this.timers.clone();
       timers[timer.getId() % 4] = timer;
+      return new Timers(timers, currentHour, currentMinute);
+    }
+
+    public Timer[] getTimers() {
+      return timers.clone();
+    }
+
+    public Duration getClockDrift(int hostSecondOfDay) {
+      int bulbMinutes = currentHour * 60 + currentMinute;
+      int hostMinutes = hostSecondOfDay / 60;
+      int drift = Math.floorMod(bulbMinutes - hostMinutes + 720, 1440) - 720;
+      return Duration.ofMinutes(drift);
     }
 
     public int getCurrentHour() {
@@ -366,6 +553,20 @@ public class Playbulb {
       return currentMinute;
     }
 
+    // the bulb clock advances on its own, so it is not part of the timer state
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Timers)) {
+        return false;
+      }
+      return Arrays.equals(timers, ((Timers) obj).timers);
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(timers);
+    }
+
     @Override
     public String toString() {
       String s = "Timers(time=" + String.format("%02d:%02d", getCurrentHour(), getCurrentMinute());
@@ -378,13 +579,13 @@ public class Playbulb {
 
   public static class Randommode {
 
-    private int startingHour;
-    private int startingMinute;
-    private int endingHour;
-    private int endingMinute;
-    private int minInterval;
-    private int maxInterval;
-    private Color color;
+    private final int startingHour;
+    private final int startingMinute;
+    private final int endingHour;
+    private final int endingMinute;
+    private final int minInterval;
+    private final int maxInterval;
+    private final Color color;
 
     public Randommode(int startingHour, int startingMinute, int endingHour, int endingMinute, int minInterval,
         int maxInterval, Color color) {
@@ -398,64 +599,85 @@ public class Playbulb {
     }
 
     public static Randommode fromBytes(byte[] bytes) {
-      Color color = Color.fromBytes(Arrays.copyOfRange(bytes, 9, 13));
-      return new Randommode(bytes[3], bytes[4], bytes[5], bytes[6], bytes[7], bytes[8], color);
+      return fromBytes(bytes, 0);
+    }
+
+    public static Randommode fromBytes(byte[] bytes, int offset) {
+      Color color = Color.fromBytes(bytes, offset + 9);
+      return new Randommode(bytes[offset + 3], bytes[offset + 4], bytes[offset + 5], bytes[offset + 6],
+          bytes[offset + 7] & 0xff, bytes[offset + 8] & 0xff, color);
     }
 
     public int getStartingHour() {
       return startingHour;
     }
 
-    public void setStartingHour(int startingHour) {
-      this.startingHour = startingHour;
+    public Randommode withStartingHour(int startingHour) {
+      return new Randommode(startingHour, startingMinute, endingHour, endingMinute, minInterval, maxInterval, color);
     }
 
     public int getStartingMinute() {
       return startingMinute;
     }
 
-    public void setStartingMinute(int startingMinute) {
-      this.startingMinute = startingMinute;
+    public Randommode withStartingMinute(int startingMinute) {
+      return new Randommode(startingHour, startingMinute, endingHour, endingMinute, minInterval, maxInterval, color);
     }
 
     public int getEndingHour() {
       return endingHour;
     }
 
-    public void setEndingHour(int endingHour) {
-      this.endingHour = endingHour;
+    public Randommode withEndingHour(int endingHour) {
+      return new Randommode(startingHour, startingMinute, endingHour, endingMinute, minInterval, maxInterval, color);
     }
 
     public int getEndingMinute() {
       return endingMinute;
     }
 
-    public void setEndingMinute(int endingMinute) {
-      this.endingMinute = endingMinute;
+    public Randommode withEndingMinute(int endingMinute) {
+      return new Randommode(startingHour, startingMinute, endingHour, endingMinute, minInterval, maxInterval, color);
     }
 
     public int getMinInterval() {
       return minInterval;
     }
 
-    public void setMinInterval(int minInterval) {
-      this.minInterval = minInterval;
+    public Randommode withMinInterval(int minInterval) {
+      return new Randommode(startingHour, startingMinute, endingHour, endingMinute, minInterval, maxInterval, color);
     }
 
     public int getMaxInterval() {
       return maxInterval;
     }
 
-    public void setMaxInterval(int maxInterval) {
-      this.maxInterval = maxInterval;
+    public Randommode withMaxInterval(int maxInterval) {
+      return new Randommode(startingHour, startingMinute, endingHour, endingMinute, minInterval, maxInterval, color);
     }
 
     public Color getColor() {
       return color;
     }
 
-    public void setColor(Color color) {
-      this.color = color;
+    public Randommode withColor(Color color) {
+      return new Randommode(startingHour, startingMinute, endingHour, endingMinute, minInterval, maxInterval, color);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Randommode)) {
+        return false;
+      }
+      Randommode other = (Randommode) obj;
+      return startingHour == other.startingHour && startingMinute == other.startingMinute
+          && endingHour == other.endingHour && endingMinute == other.endingMinute && minInterval == other.minInterval
+          && maxInterval == other.maxInterval && Objects.equals(color, other.color);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(startingHour, startingMinute, endingHour, endingMinute, minInterval, maxInterval, color);
     }
 
     @Override
@@ -474,262 +696,727 @@ public class Playbulb {
           getMinInterval(), getMaxInterval(), color);
     }
 
+    void encode(byte[] bytes, int offset, int secondOfDay) {
+      bytes[offset] = (byte) TimeOfDay.second(secondOfDay);
+      bytes[offset + 1] = (byte) TimeOfDay.minute(secondOfDay);
+      bytes[offset + 2] = (byte) TimeOfDay.hour(secondOfDay);
+      bytes[offset + 3] = (byte) startingHour;
+      bytes[offset + 4] = (byte) startingMinute;
+      bytes[offset + 5] = (byte) endingHour;
+      bytes[offset + 6] = (byte) endingMinute;
+      bytes[offset + 7] = (byte) minInterval;
+      bytes[offset + 8] = (byte) maxInterval;
+      color.encode(bytes, offset + 9);
+    }
+
     byte[] toBytes() {
-      Calendar calendar = Calendar.getInstance();
-      int currentSecond = calendar.get(Calendar.SECOND);
-      int currentMinute = calendar.get(Calendar.MINUTE);
-      int currentHour = calendar.get(Calendar.HOUR_OF_DAY);
-      byte[] c = color.toBytes();
-      return new byte[] { (byte) currentSecond, (byte) currentMinute, (byte) currentHour, (byte) startingHour,
-          (byte) startingMinute, (byte) endingHour, (byte) endingMinute, (byte) minInterval,
-          (byte) maxInterval, c[0], c[1], c[2], c[3] };
+      return toBytes(TimeOfDay.SYSTEM_CLOCK);
+    }
+
+    byte[] toBytes(Clock clock) {
+      byte[] bytes = new byte[13];
+      encode(bytes, 0, TimeOfDay.secondOfDay(clock));
+      return bytes;
     }
   }
 
   public Playbulb(BluetoothDevice device) {
+    this(new TinybGattDevice(device));
+  }
+
+  public Playbulb(GattDevice device) {
+    this(device, null);
+  }
+
+  public Playbulb(GattDevice device, CharacteristicCache cache) {
+    this(device, cache, null);
+  }
+
+  public Playbulb(GattDevice device, CharacteristicCache cache, DeviceInfoStore deviceInfoStore) {
     this.bulb = device;
+    this.deviceInfoStore = deviceInfoStore;
     if (!device.getConnected()) {
       device.connect();
     }
 
-    this.characteristics = Utils.getCharacteristics(device);
+    this.guard = GattGuard.of(device.getAddress());
+    if (cache != null) {
+      this.characteristics = GattMetrics.getDefault().instrument(device.getAddress(),
+          guard.guard(cache.resolve(device)));
+    } else {
+      this.characteristics = GattMetrics.getDefault().instrument(device.getAddress(),
+          guard.guard(Utils.getCharacteristics(device)));
+    }
+
+    if (deviceInfoStore != null) {
+      DeviceInfo info = deviceInfoStore.get(device.getAddress());
+      if (info != null && (cache == null
+          || Objects.equals(cache.getFirmware(device.getAddress()), info.getFirmwareRevision()))) {
+        update(s -> s.withDeviceInfo(info));
+      }
+    }
   }
 
-  public Playbulb readSerialNumber() {
-    if (serialNumber == null) {
-      serialNumber = Utils.readString(characteristics.get(CHARACTERISTIC_SERIAL_NUMBER_STRING));
+  public static CharacteristicCache createCharacteristicCache(Path file) throws IOException {
+    return new CharacteristicCache(file, CHARACTERISTIC_FIRMWARE_REVISION_STRING);
+  }
+
+  public GattDevice getDevice() {
+    return bulb;
+  }
+
+  public String getAddress() {
+    return bulb.getAddress();
+  }
+
+  public GattGuard getGattGuard() {
+    return guard;
+  }
+
+  public void setGattPolicy(GattPolicy policy) {
+    guard.setPolicy(policy);
+  }
+
+  public PlaybulbSnapshot getSnapshot() {
+    return current();
+  }
+
+  private PlaybulbSnapshot current() {
+    if (!pending) {
+      return snapshot;
+    }
+    synchronized (writeLock) {
+      publishPending();
+      return snapshot;
+    }
+  }
+
+  // called with writeLock held
+  private void publishPending() {
+    if (pending) {
+      PlaybulbSnapshot current = snapshot;
+      snapshot = current.nextWrite(pendingColorWritten, pendingColor, pendingEffect, current.getVersion() + 1,
+          pendingTimestamp);
+      pendingColorWritten = false;
+      pendingColor = null;
+      pendingEffect = null;
+      pending = false;
+    }
+  }
+
+  private PlaybulbSnapshot update(UnaryOperator<PlaybulbSnapshot> change) {
+    synchronized (writeLock) {
+      publishPending();
+      PlaybulbSnapshot current = snapshot;
+      PlaybulbSnapshot next = change.apply(current).stamp(current.getVersion() + 1, clock.millis());
+      snapshot = next;
+      return next;
+    }
+  }
+
+  private Object update(Field field, Object value) {
+    synchronized (writeLock) {
+      publishPending();
+      PlaybulbSnapshot current = snapshot;
+      snapshot = current.next(field, value, current.getVersion() + 1, clock.millis());
+      return value;
+    }
+  }
+
+  private void colorWritten(Color color) {
+    synchronized (writeLock) {
+      pendingColorWritten = true;
+      pendingColor = color;
+      // a color write also turns the effect off on the bulb, so the cached effect is no longer known
+      pendingEffect = null;
+      pendingTimestamp = clock.millis();
+      pending = true;
+    }
+  }
+
+  private void effectWritten(Effect effect) {
+    synchronized (writeLock) {
+      pendingEffect = effect;
+      pendingTimestamp = clock.millis();
+      pending = true;
+    }
+  }
+
+  private void readOnce(Field field, String uuid, Function<GattCharacteristic, Object> read) {
+    if (!current().has(field)) {
+      update(field, read.apply(characteristics.get(uuid)));
     }
+  }
+
+  public Playbulb readSerialNumber() {
+    readOnce(Field.SERIAL_NUMBER, CHARACTERISTIC_SERIAL_NUMBER_STRING, Utils::readString);
     return this;
   }
 
+
   public Playbulb readFirmwareRevision() {
-    if (firmwareRevision == null) {
-      firmwareRevision = Utils.readString(characteristics.get(CHARACTERISTIC_FIRMWARE_REVISION_STRING));
-    }
+    readOnce(Field.FIRMWARE_REVISION, CHARACTERISTIC_FIRMWARE_REVISION_STRING, Utils::readString);
     return this;
   }
 
+
   public Playbulb readHardwareRevision() {
-    if (hardwareRevision == null) {
-      hardwareRevision = Utils.readString(characteristics.get(CHARACTERISTIC_HARDWARE_REVISION_STRING));
-    }
+    readOnce(Field.HARDWARE_REVISION, CHARACTERISTIC_HARDWARE_REVISION_STRING, Utils::readString);
     return this;
   }
 
+
   public Playbulb readSoftwareRevision() {
-    if (softwareRevision == null) {
-      softwareRevision = Utils.readString(characteristics.get(CHARACTERISTIC_SOFTWARE_REVISION_STRING));
-    }
+    readOnce(Field.SOFTWARE_REVISION, CHARACTERISTIC_SOFTWARE_REVISION_STRING, Utils::readString);
     return this;
   }
 
+
   public Playbulb readManufacturerName() {
-    if (manufacturer == null) {
-      manufacturer = Utils.readString(characteristics.get(CHARACTERISTIC_MANUFACTURER_NAME_STRING));
-    }
+    readOnce(Field.MANUFACTURER, CHARACTERISTIC_MANUFACTURER_NAME_STRING, Utils::readString);
     return this;
   }
 
+
   public Playbulb readPnpId() {
-    if (pnpId == null) {
-      pnpId = Utils.readBigInteger(characteristics.get(CHARACTERISTIC_PNP_ID));
-    }
+    readOnce(Field.PNP_ID, CHARACTERISTIC_PNP_ID, Utils::readBigInteger);
     return this;
   }
 
+
   public Playbulb readColor() {
     byte[] bytes = characteristics.get(CHARACTERISTIC_PLAYBULB_COLOR).readValue();
-    color = Color.fromBytes(bytes);
+    update(Field.COLOR, Color.fromBytes(bytes));
     return this;
   }
 
   public Playbulb readEffect() {
     byte[] bytes = characteristics.get(CHARACTERISTIC_PLAYBULB_EFFECT).readValue();
-    effect = Effect.fromBytes(bytes);
+    update(Field.EFFECT, Effect.fromBytes(bytes));
     return this;
   }
 
   public Playbulb readTimers() {
-    BluetoothGattCharacteristic timerCharacteristic = characteristics.get(CHARACTERISTIC_PLAYBULB_TIMER_SETTTINGS);
-    BluetoothGattCharacteristic runningCharacteristic = characteristics.get(CHARACTERISTIC_PLAYBULB_RUNNING_TIMERS);
+    GattCharacteristic timerCharacteristic = characteristics.get(CHARACTERISTIC_PLAYBULB_TIMER_SETTTINGS);
+    GattCharacteristic runningCharacteristic = characteristics.get(CHARACTERISTIC_PLAYBULB_RUNNING_TIMERS);
     if (timerCharacteristic != null && runningCharacteristic != null) {
       byte[] bytesTimer = timerCharacteristic.readValue();
+      int hostSecondOfDay = TimeOfDay.secondOfDay(clock);
       byte[] bytesEffect = runningCharacteristic.readValue();
 
-      timers = Timers.fromBytes(bytesTimer, bytesEffect);
+      Timers timers = Timers.fromBytes(bytesTimer, bytesEffect);
+      update(s -> s.with(Field.TIMERS, timers).withClockDrift(timers.getClockDrift(hostSecondOfDay)));
     }
     return this;
   }
 
   public Playbulb readRandommode() {
     byte[] bytes = characteristics.get(CHARACTERISTIC_PLAYBULB_RANDOM_MODE).readValue();
-    randommode = Randommode.fromBytes(bytes);
+    update(Field.RANDOMMODE, Randommode.fromBytes(bytes));
     return this;
   }
 
   public Playbulb readName() {
-    name = Utils.readString(characteristics.get(CHARACTERISTIC_PLAYBULB_GIVEN_NAME));
+    update(Field.NAME, Utils.readString(characteristics.get(CHARACTERISTIC_PLAYBULB_GIVEN_NAME)));
     return this;
   }
 
   public Playbulb readPin() {
-    BluetoothGattCharacteristic characteristic = characteristics.get(CHARACTERISTIC_PLAYBULB_PIN);
-    if (characteristic != null) {
-      pin = Utils.readString(characteristic);
-    } else {
-      pin = "N/A";
-    }
+    GattCharacteristic characteristic = characteristics.get(CHARACTERISTIC_PLAYBULB_PIN);
+    update(Field.PIN, characteristic != null ? Utils.readString(characteristic) : "N/A");
     return this;
   }
 
   public Playbulb readBatteryLevel() {
-    BluetoothGattCharacteristic characteristic = characteristics.get(CHARACTERISTIC_BATTERY_LEVEL);
-    if (characteristic != null) {
-      batteryLevel = Utils.readInteger(characteristic);
-    } else {
-      batteryLevel = null;
-    }
+    GattCharacteristic characteristic = characteristics.get(CHARACTERISTIC_BATTERY_LEVEL);
+    update(Field.BATTERY_LEVEL, characteristic != null ? Integer.valueOf(Utils.readInteger(characteristic)) : null);
     return this;
   }
 
   public void readAll() {
-    this.readFirmwareRevision().readHardwareRevision().readManufacturerName().readPnpId().readSerialNumber()
-        .readSoftwareRevision().readColor().readEffect().readTimers().readRandommode().readName().readPin().readBatteryLevel();
+    read(EnumSet.allOf(Field.class));
+    storeDeviceInfo();
+  }
+
+  public PlaybulbSnapshot read(EnumSet<Field> fields) {
+
+    PlaybulbSnapshot current = current();
+    Map<Field, CompletableFuture<byte[]>> pending = new EnumMap<>(Field.class);
+    Map<Field, Object> values = new EnumMap<>(Field.class);
+
+    for (Field field : fields) {
+      if (STATIC_FIELDS.contains(field) && current.has(field)) {
+        continue;
+      }
+      GattCharacteristic characteristic = characteristics.get(FIELD_CHARACTERISTICS.get(field));
+      if (characteristic != null) {
+        pending.put(field, characteristic.readValueAsync());
+      } else if (field == Field.PIN) {
+        values.put(field, "N/A");
+      } else if (field == Field.BATTERY_LEVEL) {
+        values.put(field, null);
+      }
+    }
+
+    CompletableFuture<byte[]> running = null;
+    int hostSecondOfDay = 0;
+    if (pending.containsKey(Field.TIMERS)) {
+      GattCharacteristic characteristic = characteristics.get(CHARACTERISTIC_PLAYBULB_RUNNING_TIMERS);
+      if (characteristic != null) {
+        running = characteristic.readValueAsync();
+        hostSecondOfDay = TimeOfDay.secondOfDay(clock);
+      } else {
+        pending.remove(Field.TIMERS);
+      }
+    }
+
+    RuntimeException failure = null;
+    for (Map.Entry<Field, CompletableFuture<byte[]>> e : pending.entrySet()) {
+      try {
+        byte[] bytes = join(e.getValue());
+        values.put(e.getKey(), e.getKey() == Field.TIMERS ? Timers.fromBytes(bytes, join(running))
+            : decode(e.getKey(), bytes));
+      } catch (RuntimeException ex) {
+        if (failure == null) {
+          failure = ex;
+        }
+      }
+    }
+
+    Timers timers = (Timers) values.get(Field.TIMERS);
+    Duration drift = timers != null ? timers.getClockDrift(hostSecondOfDay) : null;
+    PlaybulbSnapshot next = update(s -> drift != null ? s.with(values).withClockDrift(drift) : s.with(values));
+
+    if (failure != null) {
+      throw failure;
+    }
+    return next;
+  }
+
+  private static byte[] join(CompletableFuture<byte[]> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new GattException(e.getCause().getMessage(), e.getCause());
+    }
+  }
+
+  private static Object decode(Field field, byte[] bytes) {
+    switch (field) {
+    case BATTERY_LEVEL:
+      return new BigInteger(bytes).intValue();
+    case PNP_ID:
+      return new BigInteger(bytes);
+    case COLOR:
+      return Color.fromBytes(bytes);
+    case EFFECT:
+      return Effect.fromBytes(bytes);
+    case RANDOMMODE:
+      return Randommode.fromBytes(bytes);
+    default:
+      return new String(bytes);
+    }
+  }
+
+  public DeviceInfo getDeviceInfo() {
+    return current().getDeviceInfo();
+  }
+
+  private void storeDeviceInfo() {
+    if (deviceInfoStore != null) {
+      deviceInfoStore.put(bulb.getAddress(), getDeviceInfo());
+    }
   }
 
   public String getSerialNumber() {
     readSerialNumber();
-    return serialNumber;
+    return current().getSerialNumber();
   }
 
   public String getFirmwareRevision() {
     readFirmwareRevision();
-    return firmwareRevision;
+    return current().getFirmwareRevision();
   }
 
   public String getHardwareRevision() {
     readHardwareRevision();
-    return hardwareRevision;
+    return current().getHardwareRevision();
   }
 
   public String getSoftwareRevision() {
     readSoftwareRevision();
-    return softwareRevision;
+    return current().getSoftwareRevision();
   }
 
   public String getManufacturer() {
     readManufacturerName();
-    return manufacturer;
+    return current().getManufacturer();
   }
 
   public BigInteger getPnpId() {
     readPnpId();
-    return pnpId;
+    return current().getPnpId();
   }
 
   public Color getColor(boolean force) {
-    if (color == null || force) {
+    if (force || !current().has(Field.COLOR)) {
       readColor();
     }
-    return color;
+    return current().getColor();
   }
 
   public void setColor(Color color) {
-    byte[] bytes = color.toBytes();
-    boolean success = characteristics.get(CHARACTERISTIC_PLAYBULB_COLOR).writeValue(bytes);
+    color.encode(colorBuffer, 0);
+    boolean success = characteristics.get(CHARACTERISTIC_PLAYBULB_COLOR).writeValue(colorBuffer);
     if (success) {
-      this.color = color;
+      colorWritten(color);
+      journal(Field.COLOR, color);
+    }
+  }
+
+  public class PreparedWrite {
+
+    private final GattCharacteristic characteristic;
+    private final byte[] bytes;
+    private final Runnable confirm;
+
+    PreparedWrite(String uuid, byte[] bytes, Runnable confirm) {
+      this.characteristic = characteristics.get(uuid);
+      this.bytes = bytes;
+      this.confirm = confirm;
     }
+
+    public Playbulb getPlaybulb() {
+      return Playbulb.this;
+    }
+
+    public boolean execute() {
+      boolean success = characteristic.writeValue(bytes);
+      if (success) {
+        confirm.run();
+      }
+      return success;
+    }
+
+  }
+
+  public PreparedWrite prepareColor(Color color) {
+    return new PreparedWrite(CHARACTERISTIC_PLAYBULB_COLOR, color.toBytes(), () -> {
+      colorWritten(color);
+      journal(Field.COLOR, color);
+    });
+  }
+
+  public PreparedWrite prepareEffect(Effect effect) {
+    return new PreparedWrite(CHARACTERISTIC_PLAYBULB_EFFECT, effect.toBytes(), () -> {
+      effectWritten(effect);
+      journal(Field.EFFECT, effect);
+    });
   }
 
   public Effect getEffect(boolean force) {
-    if (effect == null || force) {
+    if (force || !current().has(Field.EFFECT)) {
       readEffect();
     }
-    return effect;
+    return current().getEffect();
   }
 
   public void setEffect(Effect effect) {
-    byte[] bytes = effect.toBytes();
-    boolean success = characteristics.get(CHARACTERISTIC_PLAYBULB_EFFECT).writeValue(bytes);
+    effect.encode(effectBuffer, 0);
+    boolean success = characteristics.get(CHARACTERISTIC_PLAYBULB_EFFECT).writeValue(effectBuffer);
     if (success) {
-      this.effect = effect;
+      effectWritten(effect);
+      journal(Field.EFFECT, effect);
     }
   }
 
   public Timers getTimers(boolean force) {
-    if (timers == null || force) {
+    if (force || !current().has(Field.TIMERS)) {
       readTimers();
     }
-    return timers;
+    return current().getTimers();
   }
 
   public void setTimer(Timer timer) {
-    byte[] bytes = timer.toBytes();
+    byte[] bytes = timer.toBytes(clock);
     boolean success = characteristics.get(CHARACTERISTIC_PLAYBULB_TIMER_SETTTINGS).writeValue(bytes);
     if (success) {
-      timers.setTimer(timer);
+      update(s -> s.with(Field.TIMERS, s.getTimers() != null ? s.getTimers().withTimer(timer) : null)
+          .withClockDrift(Duration.ZERO));
+      journal(Field.TIMERS, timer);
+    }
+  }
+
+  public void setTimers(Timers timers) {
+    int secondOfDay = TimeOfDay.secondOfDay(clock);
+    List<byte[]> values = new ArrayList<>(4);
+    for (Timer timer : timers.timers) {
+      if (timer != null) {
+        byte[] bytes = new byte[13];
+        timer.encode(bytes, 0, secondOfDay);
+        values.add(bytes);
+      }
+    }
+    boolean success = characteristics.get(CHARACTERISTIC_PLAYBULB_TIMER_SETTTINGS).writeValues(values);
+    if (success) {
+      update(s -> s.with(Field.TIMERS, merge(s.getTimers(), timers)).withClockDrift(Duration.ZERO));
+      for (Timer timer : timers.timers) {
+        if (timer != null) {
+          journal(Field.TIMERS, timer);
+        }
+      }
     }
   }
 
+  private static Timers merge(Timers current, Timers timers) {
+    if (current == null) {
+      return timers;
+    }
+    for (Timer timer : timers.timers) {
+      if (timer != null) {
+        current = current.withTimer(timer);
+      }
+    }
+    return current;
+  }
+
+  public synchronized EnumSet<Field> subscribe() {
+    clearSubscriptionsIfDisconnected();
+    subscribe(Field.BATTERY_LEVEL, CHARACTERISTIC_BATTERY_LEVEL,
+        bytes -> new BigInteger(bytes).intValue());
+    subscribe(Field.COLOR, CHARACTERISTIC_PLAYBULB_COLOR, Color::fromBytes);
+    subscribe(Field.EFFECT, CHARACTERISTIC_PLAYBULB_EFFECT, Effect::fromBytes);
+    subscribe(Field.RANDOMMODE, CHARACTERISTIC_PLAYBULB_RANDOM_MODE, Randommode::fromBytes);
+    return getSubscriptions();
+  }
+
+  private void subscribe(Field field, String uuid, Function<byte[], Object> decode) {
+    GattCharacteristic characteristic = characteristics.get(uuid);
+    if (characteristic == null || subscriptions.containsKey(field) || !isNotifying(characteristic)) {
+      return;
+    }
+    try {
+      characteristic.enableValueNotifications(bytes -> {
+        Object value = update(field, decode.apply(bytes));
+        BiConsumer<Field, Object> listener = changeListener;
+        if (listener != null) {
+          listener.accept(field, value);
+        }
+      });
+      subscriptions.put(field, characteristic);
+    } catch (GattException e) {
+      // fall back to polling this field
+    }
+  }
+
+  private static boolean isNotifying(GattCharacteristic characteristic) {
+    for (String flag : characteristic.getFlags()) {
+      if ("notify".equals(flag) || "indicate".equals(flag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public synchronized void unsubscribe() {
+    for (GattCharacteristic characteristic : subscriptions.values()) {
+      try {
+        characteristic.disableValueNotifications();
+      } catch (GattException e) {
+        // device already gone
+      }
+    }
+    subscriptions.clear();
+  }
+
+  // notifications do not survive a disconnect, a reconnected bulb has to subscribe again
+  private void clearSubscriptionsIfDisconnected() {
+    if (!subscriptions.isEmpty() && !bulb.getConnected()) {
+      subscriptions.clear();
+    }
+  }
+
+  public synchronized boolean isSubscribed(Field field) {
+    clearSubscriptionsIfDisconnected();
+    return subscriptions.containsKey(field);
+  }
+
+  public synchronized EnumSet<Field> getSubscriptions() {
+    clearSubscriptionsIfDisconnected();
+    return subscriptions.isEmpty() ? EnumSet.noneOf(Field.class) : EnumSet.copyOf(subscriptions.keySet());
+  }
+
+  public void setChangeListener(BiConsumer<Field, Object> changeListener) {
+    this.changeListener = changeListener;
+  }
+
+  public StateJournal getJournal() {
+    return journal;
+  }
+
+  public void setJournal(StateJournal journal) {
+    this.journal = journal;
+  }
+
+  private void journal(Field field, Object value) {
+    StateJournal journal = this.journal;
+    if (journal != null) {
+      journal.append(bulb.getAddress(), field, value);
+    }
+  }
+
+  public Clock getClock() {
+    return clock;
+  }
+
+  public void setClock(Clock clock) {
+    this.clock = clock;
+  }
+
+  public Duration getClockDrift() {
+    return current().getClockDrift();
+  }
+
   public Randommode getRandommode(boolean force) {
-    if (randommode == null || force) {
+    if (force || !current().has(Field.RANDOMMODE)) {
       readRandommode();
     }
-    return randommode;
+    return current().getRandommode();
   }
 
   public void setRandommode(Randommode randommode) {
-    byte[] bytes = randommode.toBytes();
+    byte[] bytes = randommode.toBytes(clock);
     boolean success = characteristics.get(CHARACTERISTIC_PLAYBULB_RANDOM_MODE).writeValue(bytes);
     if (success) {
-      this.randommode = randommode;
+      update(s -> s.with(Field.RANDOMMODE, randommode).withClockDrift(Duration.ZERO));
+      journal(Field.RANDOMMODE, randommode);
     }
   }
 
   public String getName(boolean force) {
-    if (name == null || force) {
+    if (force || !current().has(Field.NAME)) {
       readName();
     }
-    return name;
+    return current().getName();
   }
 
   public void setName(String name) {
     byte[] bytes = name.getBytes();
     boolean success = characteristics.get(CHARACTERISTIC_PLAYBULB_GIVEN_NAME).writeValue(bytes);
     if (success) {
-      this.name = name;
+      update(Field.NAME, name);
+      journal(Field.NAME, name);
     }
   }
 
   public String getPin(boolean force) {
-    if (pin == null || force) {
+    if (force || !current().has(Field.PIN)) {
       readPin();
     }
-    return pin;
+    return current().getPin();
   }
 
   public void setPin(String pin) {
     byte[] bytes = pin.getBytes();
     boolean success = characteristics.get(CHARACTERISTIC_PLAYBULB_GIVEN_NAME).writeValue(bytes);
     if (success) {
-      this.pin = pin;
+      update(Field.PIN, pin);
+    }
+  }
+
+  public ReconcileResult apply(BulbState state) {
+
+    ReconcileResult result = new ReconcileResult();
+    boolean colorWritten = false;
+    PlaybulbSnapshot current = current();
+
+    if (state.getColor() != null) {
+      if (state.getColor().equals(current.getColor())) {
+        result.skipped(Field.COLOR);
+      } else {
+        colorWritten = true;
+        write(result, Field.COLOR, () -> setColor(state.getColor()),
+            () -> state.getColor().equals(current().getColor()));
+      }
+    }
+
+    if (state.getEffect() != null) {
+      if (!colorWritten && state.getEffect().equals(current.getEffect())) {
+        result.skipped(Field.EFFECT);
+      } else {
+        write(result, Field.EFFECT, () -> setEffect(state.getEffect()),
+            () -> state.getEffect().equals(current().getEffect()));
+      }
+    }
+
+    if (state.getRandommode() != null) {
+      if (state.getRandommode().equals(current.getRandommode())) {
+        result.skipped(Field.RANDOMMODE);
+      } else {
+        write(result, Field.RANDOMMODE, () -> setRandommode(state.getRandommode()),
+            () -> state.getRandommode().equals(current().getRandommode()));
+      }
+    }
+
+    for (int i = 0; i < 4; i++) {
+      Timer timer = state.getTimer(i);
+      if (timer == null) {
+        continue;
+      }
+      if (current.getTimers() != null && timer.equals(current.getTimers().getTimer(i))) {
+        result.skipped(Field.TIMERS);
+      } else {
+        int id = i;
+        write(result, Field.TIMERS, () -> setTimer(timer),
+            () -> current().getTimers() == null || timer.equals(current().getTimers().getTimer(id)));
+      }
+    }
+
+    if (state.getName() != null) {
+      if (state.getName().equals(current.getName())) {
+        result.skipped(Field.NAME);
+      } else {
+        write(result, Field.NAME, () -> setName(state.getName()),
+            () -> state.getName().equals(current().getName()));
+      }
+    }
+
+    return result;
+  }
+
+  private static void write(ReconcileResult result, Field field, Runnable write, BooleanSupplier confirmed) {
+    try {
+      write.run();
+    } catch (GattException e) {
+      result.failed(field);
+      return;
+    }
+    if (confirmed.getAsBoolean()) {
+      result.written(field);
+    } else {
+      result.failed(field);
     }
   }
 
   public Integer getBatteryLevel(boolean force) {
-    if (batteryLevel == null || force) {
+    if (force || !current().has(Field.BATTERY_LEVEL)) {
       readBatteryLevel();
     }
-    return batteryLevel;
+    return current().getBatteryLevel();
   }
 
   @Override
   public String toString() {
+    PlaybulbSnapshot current = current();
     return String.format(
         "Playbulb(mac=%s, name=%s, pin=%s, battery=%d, manufacturer=%s, serialnumber=%s, firmware=%s, hardware=%s, software=%s, pnp=%d, color=%s, effect=%s, timers=%s, randommode=%s)",
-        bulb.getAddress(), name, pin, batteryLevel, manufacturer, serialNumber, firmwareRevision, hardwareRevision,
-        softwareRevision, pnpId, color, effect, timers, randommode);
+        bulb.getAddress(), current.getName(), current.getPin(), current.getBatteryLevel(), current.getManufacturer(),
+        current.getSerialNumber(), current.getFirmwareRevision(), current.getHardwareRevision(),
+        current.getSoftwareRevision(), current.getPnpId(), current.getColor(), current.getEffect(),
+        current.getTimers(), current.getRandommode());
   }
 
 }
@@ -0,0 +1,178 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Color;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Effect;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Randommode;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Timer;
+
+public class PlaybulbFleet {
+
+  private static final ExecutorService FLEET_EXECUTOR = Executors.newCachedThreadPool(r -> {
+    Thread thread = new Thread(r, "playbulb-fleet");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public static class Result {
+
+    private final String mac;
+    private final Throwable error;
+    private final long waitNanos;
+    private final long executionNanos;
+
+    Result(String mac, Throwable error, long waitNanos, long executionNanos) {
+      this.mac = mac;
+      this.error = error;
+      this.waitNanos = waitNanos;
+      this.executionNanos = executionNanos;
+    }
+
+    public String getMac() {
+      return mac;
+    }
+
+    public boolean isSuccess() {
+      return error == null;
+    }
+
+    public Throwable getError() {
+      return error;
+    }
+
+    public long getWaitNanos() {
+      return waitNanos;
+    }
+
+    public long getExecutionNanos() {
+      return executionNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Result(mac=%s, success=%b, wait=%dms, execution=%dms%s)", mac, isSuccess(),
+          TimeUnit.NANOSECONDS.toMillis(waitNanos), TimeUnit.NANOSECONDS.toMillis(executionNanos),
+          error != null ? ", error=" + error : "");
+    }
+
+  }
+
+  private final Map<String, Playbulb> bulbs = new ConcurrentHashMap<>();
+  private final Map<String, Semaphore> adapters = new ConcurrentHashMap<>();
+  private final int maxConcurrentPerAdapter;
+  private final Executor executor;
+
+  public PlaybulbFleet(int maxConcurrentPerAdapter) {
+    this(maxConcurrentPerAdapter, FLEET_EXECUTOR);
+  }
+
+  public PlaybulbFleet(int maxConcurrentPerAdapter, Executor executor) {
+    if (maxConcurrentPerAdapter < 1) {
+      throw new IllegalArgumentException("At least one concurrent operation per adapter is required");
+    }
+    this.maxConcurrentPerAdapter = maxConcurrentPerAdapter;
+    this.executor = executor;
+  }
+
+  public PlaybulbFleet add(Playbulb playbulb) {
+    bulbs.put(playbulb.getAddress().toUpperCase(), playbulb);
+    return this;
+  }
+
+  public Playbulb remove(String mac) {
+    return bulbs.remove(mac.toUpperCase());
+  }
+
+  public Playbulb get(String mac) {
+    return bulbs.get(mac.toUpperCase());
+  }
+
+  public Collection<Playbulb> getPlaybulbs() {
+    return bulbs.values();
+  }
+
+  public int size() {
+    return bulbs.size();
+  }
+
+  public List<Result> setColor(Color color) {
+    return apply(p -> p.setColor(color));
+  }
+
+  public List<Result> setEffect(Effect effect) {
+    return apply(p -> p.setEffect(effect));
+  }
+
+  public List<Result> setRandommode(Randommode randommode) {
+    return apply(p -> p.setRandommode(randommode));
+  }
+
+  public List<Result> setTimer(Timer timer) {
+    return apply(p -> p.setTimer(timer));
+  }
+
+  public List<Result> apply(Consumer<Playbulb> command) {
+    return applyAsync(bulbs.values(), command).join();
+  }
+
+  public CompletableFuture<List<Result>> applyAsync(Collection<Playbulb> playbulbs, Consumer<Playbulb> command) {
+
+    Map<String, Queue<Playbulb>> byAdapter = new LinkedHashMap<>();
+    for (Playbulb playbulb : playbulbs) {
+      byAdapter.computeIfAbsent(playbulb.getDevice().getAdapterAddress(), a -> new ConcurrentLinkedQueue<>())
+          .add(playbulb);
+    }
+
+    long start = System.nanoTime();
+    Queue<Result> results = new ConcurrentLinkedQueue<>();
+    List<CompletableFuture<Void>> workers = new ArrayList<>();
+    for (Map.Entry<String, Queue<Playbulb>> adapter : byAdapter.entrySet()) {
+      Semaphore permits = adapters.computeIfAbsent(adapter.getKey(), a -> new Semaphore(maxConcurrentPerAdapter));
+      Queue<Playbulb> queue = adapter.getValue();
+      int concurrency = Math.min(maxConcurrentPerAdapter, queue.size());
+      for (int i = 0; i < concurrency; i++) {
+        workers.add(CompletableFuture.runAsync(() -> drain(queue, permits, command, results, start), executor));
+      }
+    }
+
+    return CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0]))
+        .thenApply(v -> new ArrayList<>(results));
+  }
+
+  private static void drain(Queue<Playbulb> queue, Semaphore permits, Consumer<Playbulb> command,
+      Queue<Result> results, long queued) {
+    Playbulb playbulb;
+    while ((playbulb = queue.poll()) != null) {
+      permits.acquireUninterruptibly();
+      long start = System.nanoTime();
+      Throwable error = null;
+      try {
+        synchronized (playbulb) {
+          command.accept(playbulb);
+        }
+      } catch (Throwable e) {
+        error = e;
+      } finally {
+        permits.release();
+      }
+      long end = System.nanoTime();
+      results.add(new Result(playbulb.getAddress(), error, start - queued, end - start));
+    }
+  }
+
+}
@@ -0,0 +1,185 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import de.heckie.tinyb.common.BluetoothConnectionException;
+import de.heckie.tinyb.common.LatencyHistogram;
+import de.heckie.tinyb.common.Utils;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Color;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Effect;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.PreparedWrite;
+
+public class PlaybulbGroup implements AutoCloseable {
+
+  private static final long START_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+  public static class Result {
+
+    private final String[] macs;
+    private final long[] completions;
+    private final boolean[] success;
+    private final long skewNanos;
+    private final long durationNanos;
+
+    Result(String[] macs, long[] completions, boolean[] success, long start) {
+      this.macs = macs;
+      this.completions = completions;
+      this.success = success;
+      long min = Long.MAX_VALUE;
+      long max = Long.MIN_VALUE;
+      for (long completion : completions) {
+        // a worker that failed before its write never recorded a completion
+        if (completion != 0) {
+          min = Math.min(min, completion);
+          max = Math.max(max, completion);
+        }
+      }
+      this.skewNanos = min <= max ? max - min : 0;
+      this.durationNanos = min <= max ? max - start : 0;
+    }
+
+    public int size() {
+      return macs.length;
+    }
+
+    public String getMac(int index) {
+      return macs[index];
+    }
+
+    public boolean isSuccess(int index) {
+      return success[index];
+    }
+
+    public boolean isSuccess() {
+      for (boolean s : success) {
+        if (!s) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    public long getSkewNanos() {
+      return skewNanos;
+    }
+
+    public long getDurationNanos() {
+      return durationNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Result(bulbs=%d, success=%b, skew=%dus, duration=%dus)", macs.length, isSuccess(),
+          TimeUnit.NANOSECONDS.toMicros(skewNanos), TimeUnit.NANOSECONDS.toMicros(durationNanos));
+    }
+
+  }
+
+  private final List<Playbulb> playbulbs;
+  private final ExecutorService workers;
+  private final LatencyHistogram skew = new LatencyHistogram();
+
+  public PlaybulbGroup(List<Playbulb> playbulbs) {
+    this.playbulbs = new ArrayList<>(playbulbs);
+    this.workers = Executors.newFixedThreadPool(Math.max(1, playbulbs.size()), r -> {
+      Thread thread = new Thread(r, "playbulb-group");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MAX_PRIORITY);
+      return thread;
+    });
+  }
+
+  public List<Playbulb> getPlaybulbs() {
+    return playbulbs;
+  }
+
+  public LatencyHistogram getSkewHistogram() {
+    return skew;
+  }
+
+  public void connect() throws BluetoothConnectionException {
+    for (Playbulb playbulb : playbulbs) {
+      if (!playbulb.getDevice().getConnected() || !playbulb.getDevice().getServicesResolved()) {
+        Utils.connect(playbulb.getDevice());
+      }
+    }
+  }
+
+  public Result setColor(Color color) throws BluetoothConnectionException, InterruptedException {
+    return apply(p -> p.prepareColor(color));
+  }
+
+  public Result setEffect(Effect effect) throws BluetoothConnectionException, InterruptedException {
+    return apply(p -> p.prepareEffect(effect));
+  }
+
+  public Result apply(Function<Playbulb, PreparedWrite> prepare)
+      throws BluetoothConnectionException, InterruptedException {
+
+    int size = playbulbs.size();
+    if (size == 0) {
+      return new Result(new String[0], new long[0], new boolean[0], System.nanoTime());
+    }
+
+    connect();
+
+    String[] macs = new String[size];
+    PreparedWrite[] writes = new PreparedWrite[size];
+    for (int i = 0; i < size; i++) {
+      macs[i] = playbulbs.get(i).getAddress();
+      writes[i] = prepare.apply(playbulbs.get(i));
+    }
+
+    long[] completions = new long[size];
+    boolean[] success = new boolean[size];
+    long[] start = new long[1];
+    CyclicBarrier barrier = new CyclicBarrier(size, () -> start[0] = System.nanoTime() + START_DELAY_NANOS);
+
+    List<Future<?>> futures = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      int index = i;
+      futures.add(workers.submit(() -> {
+        barrier.await();
+        long target = start[0];
+        while (System.nanoTime() < target) {
+          Thread.onSpinWait();
+        }
+        try {
+          synchronized (writes[index].getPlaybulb()) {
+            success[index] = writes[index].execute();
+          }
+        } catch (RuntimeException e) {
+          success[index] = false;
+        }
+        completions[index] = System.nanoTime();
+        return null;
+      }));
+    }
+
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        barrier.reset();
+      }
+    }
+
+    Result result = new Result(macs, completions, success, start[0]);
+    skew.record(result.getSkewNanos());
+    return result;
+  }
+
+  @Override
+  public void close() {
+    workers.shutdownNow();
+  }
+
+}
@@ -0,0 +1,171 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+import de.heckie.tinyb.mipow.playbulb.DeviceInfoStore.DeviceInfo;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Color;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Effect;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Field;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Randommode;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Timers;
+
+public class PlaybulbSnapshot {
+
+  static final PlaybulbSnapshot EMPTY = new PlaybulbSnapshot(0, 0, new Object[Field.values().length], null);
+
+  private final long version;
+  private final long timestamp;
+  // indexed by Field ordinal, never written after construction
+  private final Object[] values;
+  private final Duration clockDrift;
+
+  private PlaybulbSnapshot(long version, long timestamp, Object[] values, Duration clockDrift) {
+    this.version = version;
+    this.timestamp = timestamp;
+    this.values = values;
+    this.clockDrift = clockDrift;
+  }
+
+  PlaybulbSnapshot with(Field field, Object value) {
+    return next(field, value, version, timestamp);
+  }
+
+  PlaybulbSnapshot next(Field field, Object value, long version, long timestamp) {
+    Object[] copy = values.clone();
+    copy[field.ordinal()] = value;
+    return new PlaybulbSnapshot(version, timestamp, copy, clockDrift);
+  }
+
+  // publishes the color and effect writes recorded by Playbulb since the previous snapshot
+  PlaybulbSnapshot nextWrite(boolean colorWritten, Color color, Effect effect, long version, long timestamp) {
+    Object[] copy = values.clone();
+    if (colorWritten) {
+      copy[Field.COLOR.ordinal()] = color;
+    }
+    copy[Field.EFFECT.ordinal()] = effect;
+    return new PlaybulbSnapshot(version, timestamp, copy, clockDrift);
+  }
+
+  PlaybulbSnapshot with(Map<Field, Object> changes) {
+    if (changes.isEmpty()) {
+      return this;
+    }
+    Object[] copy = values.clone();
+    for (Map.Entry<Field, Object> e : changes.entrySet()) {
+      copy[e.getKey().ordinal()] = e.getValue();
+    }
+    return new PlaybulbSnapshot(version, timestamp, copy, clockDrift);
+  }
+
+  PlaybulbSnapshot withDeviceInfo(DeviceInfo info) {
+    Object[] copy = values.clone();
+    copy[Field.SERIAL_NUMBER.ordinal()] = info.getSerialNumber();
+    copy[Field.FIRMWARE_REVISION.ordinal()] = info.getFirmwareRevision();
+    copy[Field.HARDWARE_REVISION.ordinal()] = info.getHardwareRevision();
+    copy[Field.SOFTWARE_REVISION.ordinal()] = info.getSoftwareRevision();
+    copy[Field.MANUFACTURER.ordinal()] = info.getManufacturer();
+    copy[Field.PNP_ID.ordinal()] = info.getPnpId();
+    return new PlaybulbSnapshot(version, timestamp, copy, clockDrift);
+  }
+
+  PlaybulbSnapshot withClockDrift(Duration clockDrift) {
+    return new PlaybulbSnapshot(version, timestamp, values, clockDrift);
+  }
+
+  PlaybulbSnapshot stamp(long version, long timestamp) {
+    return new PlaybulbSnapshot(version, timestamp, values, clockDrift);
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public long getTimestampMillis() {
+    return timestamp;
+  }
+
+  public Instant getTimestamp() {
+    return Instant.ofEpochMilli(timestamp);
+  }
+
+  public Object get(Field field) {
+    return values[field.ordinal()];
+  }
+
+  public boolean has(Field field) {
+    return values[field.ordinal()] != null;
+  }
+
+  public String getName() {
+    return (String) get(Field.NAME);
+  }
+
+  public String getPin() {
+    return (String) get(Field.PIN);
+  }
+
+  public Integer getBatteryLevel() {
+    return (Integer) get(Field.BATTERY_LEVEL);
+  }
+
+  public String getSerialNumber() {
+    return (String) get(Field.SERIAL_NUMBER);
+  }
+
+  public String getFirmwareRevision() {
+    return (String) get(Field.FIRMWARE_REVISION);
+  }
+
+  public String getHardwareRevision() {
+    return (String) get(Field.HARDWARE_REVISION);
+  }
+
+  public String getSoftwareRevision() {
+    return (String) get(Field.SOFTWARE_REVISION);
+  }
+
+  public String getManufacturer() {
+    return (String) get(Field.MANUFACTURER);
+  }
+
+  public BigInteger getPnpId() {
+    return (BigInteger) get(Field.PNP_ID);
+  }
+
+  public Color getColor() {
+    return (Color) get(Field.COLOR);
+  }
+
+  public Effect getEffect() {
+    return (Effect) get(Field.EFFECT);
+  }
+
+  public Timers getTimers() {
+    return (Timers) get(Field.TIMERS);
+  }
+
+  public Randommode getRandommode() {
+    return (Randommode) get(Field.RANDOMMODE);
+  }
+
+  public Duration getClockDrift() {
+    return clockDrift;
+  }
+
+  public DeviceInfo getDeviceInfo() {
+    return new DeviceInfo(getSerialNumber(), getFirmwareRevision(), getHardwareRevision(), getSoftwareRevision(),
+        getManufacturer(), getPnpId());
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "PlaybulbSnapshot(version=%d, timestamp=%s, name=%s, pin=%s, battery=%d, color=%s, effect=%s, timers=%s, randommode=%s)",
+        version, getTimestamp(), getName(), getPin(), getBatteryLevel(), getColor(), getEffect(), getTimers(),
+        getRandommode());
+  }
+
+}
@@ -0,0 +1,314 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+public class PollingScheduler implements AutoCloseable {
+
+  public static enum Target {
+
+    BATTERY(Playbulb.Field.BATTERY_LEVEL, Duration.ofMinutes(5), Duration.ofMinutes(30),
+        a -> a.getBatteryLevelAsync(true)),
+    COLOR(Playbulb.Field.COLOR, Duration.ofSeconds(5), Duration.ofMinutes(1), a -> a.getColorAsync(true)),
+    EFFECT(Playbulb.Field.EFFECT, Duration.ofSeconds(5), Duration.ofMinutes(1), a -> a.getEffectAsync(true)),
+    TIMERS(Playbulb.Field.TIMERS, Duration.ofMinutes(10), Duration.ofHours(1), a -> a.getTimersAsync(true));
+
+    private final Playbulb.Field field;
+    private final Duration minInterval;
+    private final Duration maxInterval;
+    private final Function<AsyncPlaybulb, CompletableFuture<?>> read;
+
+    private Target(Playbulb.Field field, Duration minInterval, Duration maxInterval,
+        Function<AsyncPlaybulb, CompletableFuture<?>> read) {
+      this.field = field;
+      this.minInterval = minInterval;
+      this.maxInterval = maxInterval;
+      this.read = read;
+    }
+
+    public Playbulb.Field getField() {
+      return field;
+    }
+
+    public Duration getMinInterval() {
+      return minInterval;
+    }
+
+    public Duration getMaxInterval() {
+      return maxInterval;
+    }
+
+  }
+
+  public static interface PollListener {
+
+    void polled(Playbulb playbulb, Target target, Object value, boolean changed);
+
+  }
+
+  private static class TokenBucket {
+
+    private final long periodNanos;
+    private final long burstNanos;
+    private long theoreticalArrival = System.nanoTime();
+
+    private TokenBucket(double readsPerSecond, int burst) {
+      this.periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / readsPerSecond);
+      this.burstNanos = periodNanos * Math.max(0, burst - 1);
+    }
+
+    private synchronized long reserve(long now) {
+      long arrival = Math.max(theoreticalArrival, now);
+      theoreticalArrival = arrival + periodNanos;
+      return Math.max(0, arrival - burstNanos - now);
+    }
+
+  }
+
+  private class PollTask implements Runnable {
+
+    private final AsyncPlaybulb playbulb;
+    private final Target target;
+    private final TokenBucket budget;
+    private final long minNanos;
+    private final long maxNanos;
+
+    private volatile long intervalNanos;
+    private volatile int failures;
+    // written by the timer thread and by completion callbacks
+    private volatile Object value;
+    private volatile boolean reserved;
+    private volatile ScheduledFuture<?> next;
+
+    private PollTask(AsyncPlaybulb playbulb, Target target, TokenBucket budget, Duration min, Duration max) {
+      this.playbulb = playbulb;
+      this.target = target;
+      this.budget = budget;
+      this.minNanos = min.toNanos();
+      this.maxNanos = Math.max(minNanos, max.toNanos());
+      this.intervalNanos = minNanos;
+    }
+
+    private void schedule(long delayNanos) {
+      if (running) {
+        next = timer.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    private long jittered(long nanos) {
+      return (long) (nanos * (1 + jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1)));
+    }
+
+    @Override
+    public void run() {
+      if (!running) {
+        return;
+      }
+      if (playbulb.getQueueLength() > 0) {
+        deferred.increment();
+        schedule(jittered(DEFER_NANOS));
+        return;
+      }
+      if (!reserved) {
+        long delay = budget.reserve(System.nanoTime());
+        if (delay > 0) {
+          reserved = true;
+          throttled.increment();
+          schedule(delay);
+          return;
+        }
+      }
+      reserved = false;
+
+      polls.increment();
+      target.read.apply(playbulb).whenComplete((result, e) -> {
+        if (e != null) {
+          failed(e);
+        } else {
+          succeeded(result);
+        }
+      });
+    }
+
+    private void succeeded(Object result) {
+      boolean changed = value != null && !Objects.equals(value, result);
+      if (changed) {
+        changes.increment();
+        intervalNanos = Math.max(minNanos, intervalNanos / 2);
+      } else {
+        intervalNanos = Math.min(maxNanos, (long) (intervalNanos * GROWTH));
+      }
+      value = result;
+      failures = 0;
+      PollListener listener = PollingScheduler.this.listener;
+      if (listener != null) {
+        listener.polled(playbulb.getPlaybulb(), target, result, changed);
+      }
+      if (playbulb.getPlaybulb().isSubscribed(target.field)) {
+        subscribed.increment();
+        schedule(jittered(maxNanos * SUBSCRIBED_FACTOR));
+      } else {
+        schedule(jittered(intervalNanos));
+      }
+    }
+
+    private void failed(Throwable e) {
+      PollingScheduler.this.failures.increment();
+      failures++;
+      long backoff = minNanos << Math.min(failures, 20);
+      schedule(jittered(Math.min(maxBackoffNanos, Math.max(intervalNanos, backoff))));
+    }
+
+    private void cancel() {
+      ScheduledFuture<?> next = this.next;
+      if (next != null) {
+        next.cancel(false);
+      }
+    }
+
+  }
+
+  private static final long DEFER_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+  private static final double GROWTH = 1.5;
+  private static final long SUBSCRIBED_FACTOR = 4;
+
+  private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "playbulb-poller");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final double readsPerSecondPerAdapter;
+  private final int burst;
+  private final Map<String, TokenBucket> budgets = new ConcurrentHashMap<>();
+  private final Map<String, List<PollTask>> tasks = new ConcurrentHashMap<>();
+  private final LongAdder polls = new LongAdder();
+  private final LongAdder changes = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder throttled = new LongAdder();
+  private final LongAdder deferred = new LongAdder();
+  private final LongAdder subscribed = new LongAdder();
+
+  private volatile boolean running = true;
+  private volatile double jitter = 0.2;
+  private volatile long maxBackoffNanos = TimeUnit.MINUTES.toNanos(30);
+  private volatile PollListener listener;
+
+  public PollingScheduler(double readsPerSecondPerAdapter) {
+    this(readsPerSecondPerAdapter, 1);
+  }
+
+  public PollingScheduler(double readsPerSecondPerAdapter, int burst) {
+    this.readsPerSecondPerAdapter = readsPerSecondPerAdapter;
+    this.burst = burst;
+  }
+
+  public void setListener(PollListener listener) {
+    this.listener = listener;
+  }
+
+  public void setJitter(double jitter) {
+    this.jitter = Math.max(0, Math.min(1, jitter));
+  }
+
+  public void setMaxBackoff(Duration maxBackoff) {
+    this.maxBackoffNanos = maxBackoff.toNanos();
+  }
+
+  public void add(AsyncPlaybulb playbulb, Target... targets) {
+    for (Target target : targets) {
+      add(playbulb, target, target.getMinInterval(), target.getMaxInterval());
+    }
+  }
+
+  public void add(AsyncPlaybulb playbulb, Target target, Duration minInterval, Duration maxInterval) {
+    String adapter = playbulb.getPlaybulb().getDevice().getAdapterAddress();
+    TokenBucket budget = budgets.computeIfAbsent(adapter != null ? adapter : "",
+        a -> new TokenBucket(readsPerSecondPerAdapter, burst));
+    PollTask task = new PollTask(playbulb, target, budget, minInterval, maxInterval);
+    tasks.computeIfAbsent(playbulb.getPlaybulb().getAddress(), m -> new CopyOnWriteArrayList<>()).add(task);
+    task.schedule(ThreadLocalRandom.current().nextLong(Math.max(1, task.minNanos)));
+  }
+
+  public void remove(String mac) {
+    List<PollTask> removed = tasks.remove(mac);
+    if (removed != null) {
+      for (PollTask task : removed) {
+        task.cancel();
+      }
+    }
+  }
+
+  public Duration getInterval(String mac, Target target) {
+    for (PollTask task : tasks.getOrDefault(mac, Collections.emptyList())) {
+      if (task.target == target) {
+        return Duration.ofNanos(task.intervalNanos);
+      }
+    }
+    return null;
+  }
+
+  public boolean isReachable(String mac) {
+    for (PollTask task : tasks.getOrDefault(mac, Collections.emptyList())) {
+      if (task.failures == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public long getPolls() {
+    return polls.sum();
+  }
+
+  public long getChanges() {
+    return changes.sum();
+  }
+
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  public long getThrottled() {
+    return throttled.sum();
+  }
+
+  public long getDeferred() {
+    return deferred.sum();
+  }
+
+  public long getSubscribed() {
+    return subscribed.sum();
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    for (List<PollTask> list : tasks.values()) {
+      for (PollTask task : list) {
+        task.cancel();
+      }
+    }
+    timer.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("PollingScheduler(bulbs=%d, polls=%d, changes=%d, failures=%d, throttled=%d, deferred=%d)",
+        tasks.size(), getPolls(), getChanges(), getFailures(), getThrottled(), getDeferred());
+  }
+
+}
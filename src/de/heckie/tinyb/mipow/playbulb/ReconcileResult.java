@@ -0,0 +1,61 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Field;
+
+public class ReconcileResult {
+
+  private final Set<Field> written = EnumSet.noneOf(Field.class);
+  private final Set<Field> skipped = EnumSet.noneOf(Field.class);
+  private final Set<Field> failed = EnumSet.noneOf(Field.class);
+  private int writes;
+  private int skippedWrites;
+
+  void written(Field field) {
+    written.add(field);
+    writes++;
+  }
+
+  void skipped(Field field) {
+    skipped.add(field);
+    skippedWrites++;
+  }
+
+  void failed(Field field) {
+    failed.add(field);
+    writes++;
+  }
+
+  public Set<Field> getWritten() {
+    return written;
+  }
+
+  public Set<Field> getSkipped() {
+    return skipped;
+  }
+
+  public Set<Field> getFailed() {
+    return failed;
+  }
+
+  public int getWrites() {
+    return writes;
+  }
+
+  public int getSkippedWrites() {
+    return skippedWrites;
+  }
+
+  public boolean isSuccess() {
+    return failed.isEmpty();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ReconcileResult(written=%s, skipped=%s, failed=%s, writes=%d, skippedWrites=%d)", written,
+        skipped, failed, writes, skippedWrites);
+  }
+
+}
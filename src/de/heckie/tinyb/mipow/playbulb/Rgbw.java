@@ -0,0 +1,85 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import java.nio.ByteBuffer;
+
+public final class Rgbw {
+
+  public static final int BYTES = 4;
+
+  private Rgbw() {
+  }
+
+  public static int pack(int white, int red, int green, int blue) {
+    return (white & 0xff) << 24 | (red & 0xff) << 16 | (green & 0xff) << 8 | (blue & 0xff);
+  }
+
+  public static int white(int rgbw) {
+    return rgbw >>> 24;
+  }
+
+  public static int red(int rgbw) {
+    return (rgbw >>> 16) & 0xff;
+  }
+
+  public static int green(int rgbw) {
+    return (rgbw >>> 8) & 0xff;
+  }
+
+  public static int blue(int rgbw) {
+    return rgbw & 0xff;
+  }
+
+  public static int interpolate(int from, int to, double fraction) {
+    if (fraction <= 0.0) {
+      return from;
+    }
+    if (fraction >= 1.0) {
+      return to;
+    }
+    return pack(lerp(white(from), white(to), fraction), lerp(red(from), red(to), fraction),
+        lerp(green(from), green(to), fraction), lerp(blue(from), blue(to), fraction));
+  }
+
+  private static int lerp(int from, int to, double fraction) {
+    return (int) Math.round(from + (to - from) * fraction);
+  }
+
+  public static int scale(int rgbw, double factor) {
+    return pack(clamp(white(rgbw) * factor), clamp(red(rgbw) * factor), clamp(green(rgbw) * factor),
+        clamp(blue(rgbw) * factor));
+  }
+
+  private static int clamp(double value) {
+    return (int) Math.max(0, Math.min(255, Math.round(value)));
+  }
+
+  public static int decode(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8
+        | (bytes[offset + 3] & 0xff);
+  }
+
+  public static int decode(ByteBuffer buffer, int offset) {
+    return (buffer.get(offset) & 0xff) << 24 | (buffer.get(offset + 1) & 0xff) << 16
+        | (buffer.get(offset + 2) & 0xff) << 8 | (buffer.get(offset + 3) & 0xff);
+  }
+
+  public static void encode(int rgbw, byte[] bytes, int offset) {
+    bytes[offset] = (byte) (rgbw >>> 24);
+    bytes[offset + 1] = (byte) (rgbw >>> 16);
+    bytes[offset + 2] = (byte) (rgbw >>> 8);
+    bytes[offset + 3] = (byte) rgbw;
+  }
+
+  public static void encode(int rgbw, ByteBuffer buffer, int offset) {
+    buffer.put(offset, (byte) (rgbw >>> 24));
+    buffer.put(offset + 1, (byte) (rgbw >>> 16));
+    buffer.put(offset + 2, (byte) (rgbw >>> 8));
+    buffer.put(offset + 3, (byte) rgbw);
+  }
+
+  public static String toString(int rgbw) {
+    return String.format("Rgbw(white=%d, red=%d, green=%d, blue=%d)", white(rgbw), red(rgbw), green(rgbw),
+        blue(rgbw));
+  }
+
+}
@@ -0,0 +1,443 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import de.heckie.tinyb.common.DeviceRegistry;
+import de.heckie.tinyb.common.GattException;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Color;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Effect;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Field;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Randommode;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Timer;
+
+public class StateJournal implements AutoCloseable {
+
+  private static final int MAGIC = 0x50424a4c;
+  private static final int VERSION = 1;
+  private static final int HEADER = 8;
+  private static final int INITIAL_CAPACITY = 1 << 20;
+
+  private static final byte COLOR = 1;
+  private static final byte EFFECT = 2;
+  private static final byte TIMER = 3;
+  private static final byte RANDOMMODE = 4;
+  private static final byte NAME = 5;
+
+  // length, type, mac, payload, crc
+  private static final int RECORD_OVERHEAD = 4 + 1 + 8 + 4;
+  private static final int MAX_PAYLOAD = 32;
+
+  private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(r -> {
+    Thread thread = new Thread(r, "playbulb-journal");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final Path file;
+  private final Map<Long, BulbState> states = new HashMap<>();
+  private final byte[] scratch = new byte[MAX_PAYLOAD];
+  private final CRC32 crc = new CRC32();
+
+  private FileChannel channel;
+  private MappedByteBuffer buffer;
+  private int records;
+  // devices appended while a compaction runs, null when none is running
+  private Set<Long> dirty;
+  private long replayNanos;
+
+  private final LongAdder appended = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private final LongAdder compactions = new LongAdder();
+
+  public StateJournal(Path file) throws IOException {
+    this.file = file;
+    if (Files.exists(file) && Files.size(file) >= HEADER) {
+      long start = System.nanoTime();
+      map(file, Math.max(INITIAL_CAPACITY, Files.size(file)));
+      if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION) {
+        replay();
+      } else {
+        reset();
+      }
+      replayNanos = System.nanoTime() - start;
+    } else {
+      map(file, INITIAL_CAPACITY);
+      reset();
+    }
+  }
+
+  private void map(Path path, long capacity) throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+  }
+
+  private void reset() {
+    header(buffer);
+    states.clear();
+    records = 0;
+  }
+
+  private static void header(ByteBuffer target) {
+    target.putInt(0, MAGIC);
+    target.putInt(4, VERSION);
+    target.putInt(HEADER, 0);
+    target.position(HEADER);
+  }
+
+  private void replay() {
+    int position = HEADER;
+    while (position + RECORD_OVERHEAD <= buffer.capacity()) {
+      int length = buffer.getInt(position);
+      if (length <= 0 || length > MAX_PAYLOAD || position + RECORD_OVERHEAD + length > buffer.capacity()) {
+        break;
+      }
+      byte type = buffer.get(position + 4);
+      long mac = buffer.getLong(position + 5);
+      buffer.position(position + 13);
+      buffer.get(scratch, 0, length);
+      crc.reset();
+      crc.update(type);
+      crc.update(scratch, 0, length);
+      if ((int) crc.getValue() != buffer.getInt(position + 13 + length)) {
+        break;
+      }
+      BulbState state = states.getOrDefault(mac, new BulbState());
+      states.put(mac, decode(state, type, scratch, length));
+      records++;
+      position += RECORD_OVERHEAD + length;
+    }
+    // a torn tail record is discarded and overwritten by the next append
+    buffer.putInt(position, 0);
+    buffer.position(position);
+  }
+
+  private static BulbState decode(BulbState state, byte type, byte[] bytes, int length) {
+    switch (type) {
+    case COLOR:
+      return state.withColor(Color.fromBytes(bytes, 0));
+    case EFFECT:
+      return state.withEffect(Effect.fromBytes(bytes, 0));
+    case TIMER:
+      return state.withTimer(Timer.fromBytes(bytes, 0));
+    case RANDOMMODE:
+      return state.withRandommode(Randommode.fromBytes(bytes, 0));
+    case NAME:
+      return state.withName(new String(bytes, 0, length, StandardCharsets.UTF_8));
+    default:
+      return state;
+    }
+  }
+
+  public boolean append(String mac, Field field, Object value) {
+    long key = DeviceRegistry.normalize(mac);
+    synchronized (this) {
+      if (channel == null) {
+        return false;
+      }
+      BulbState state = states.getOrDefault(key, new BulbState());
+      byte type;
+      int length;
+      switch (field) {
+      case COLOR:
+        type = COLOR;
+        length = 4;
+        ((Color) value).encode(scratch, 0);
+        state = state.withColor((Color) value);
+        break;
+      case EFFECT:
+        type = EFFECT;
+        length = 8;
+        ((Effect) value).encode(scratch, 0);
+        state = state.withEffect((Effect) value);
+        break;
+      case TIMERS:
+        type = TIMER;
+        length = 13;
+        ((Timer) value).encode(scratch, 0, 0);
+        state = state.withTimer((Timer) value);
+        break;
+      case RANDOMMODE:
+        type = RANDOMMODE;
+        length = 13;
+        ((Randommode) value).encode(scratch, 0, 0);
+        state = state.withRandommode((Randommode) value);
+        break;
+      case NAME:
+        byte[] name = ((String) value).getBytes(StandardCharsets.UTF_8);
+        type = NAME;
+        length = Math.min(name.length, MAX_PAYLOAD);
+        System.arraycopy(name, 0, scratch, 0, length);
+        state = state.withName(new String(scratch, 0, length, StandardCharsets.UTF_8));
+        break;
+      default:
+        return false;
+      }
+      states.put(key, state);
+      if (dirty != null) {
+        // a running compaction rewrites this device from memory when it swaps files
+        dirty.add(key);
+      }
+
+      int end = buffer.position() + RECORD_OVERHEAD + length + 4;
+      if (end > buffer.capacity() / 4 * 3) {
+        scheduleCompaction();
+      }
+      if (end > buffer.capacity()) {
+        // the record is not lost, the compaction persists it from memory
+        appended.increment();
+        return true;
+      }
+      write(buffer, scratch, crc, type, key, length);
+      records++;
+      appended.increment();
+      return true;
+    }
+  }
+
+  private static void write(ByteBuffer target, byte[] bytes, CRC32 crc, byte type, long mac, int length) {
+    int position = target.position();
+    crc.reset();
+    crc.update(type);
+    crc.update(bytes, 0, length);
+    target.position(position + 4);
+    target.put(type);
+    target.putLong(mac);
+    target.put(bytes, 0, length);
+    target.putInt((int) crc.getValue());
+    target.putInt(target.position(), 0);
+    // the length is written last so a reader never sees a partially written record
+    target.putInt(position, length);
+  }
+
+  // called with the lock held, the snapshot is taken here so no append can slip between snapshot and dirty tracking
+  private void scheduleCompaction() {
+    if (dirty != null) {
+      return;
+    }
+    Map<Long, BulbState> live = new HashMap<>(states);
+    long capacity = buffer.capacity();
+    dirty = new HashSet<>();
+    COMPACTOR.execute(() -> {
+      try {
+        compact(live, capacity);
+      } catch (IOException e) {
+        failures.increment();
+      }
+    });
+  }
+
+  public void compact() throws IOException {
+    Map<Long, BulbState> live;
+    long capacity;
+    synchronized (this) {
+      if (channel == null || dirty != null) {
+        return;
+      }
+      live = new HashMap<>(states);
+      capacity = buffer.capacity();
+      dirty = new HashSet<>();
+    }
+    compact(live, capacity);
+  }
+
+  private void compact(Map<Long, BulbState> live, long capacity) throws IOException {
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    FileChannel target = null;
+    try {
+      long needed = HEADER + 4 + (long) live.size() * 8 * (RECORD_OVERHEAD + MAX_PAYLOAD);
+      while (capacity < 2 * needed) {
+        capacity *= 2;
+      }
+
+      // the compacted journal is written and forced beside the live one without holding the lock
+      Files.deleteIfExists(tmp);
+      target = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      MappedByteBuffer compacted = target.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+      byte[] bytes = new byte[MAX_PAYLOAD];
+      CRC32 checksum = new CRC32();
+      header(compacted);
+      int count = 0;
+      for (Map.Entry<Long, BulbState> entry : live.entrySet()) {
+        count += writeState(compacted, bytes, checksum, entry.getKey(), entry.getValue());
+      }
+      compacted.force();
+
+      synchronized (this) {
+        if (channel == null) {
+          return;
+        }
+        // devices changed while compacting are appended in their latest state, then the files are swapped
+        for (Long key : dirty) {
+          if (compacted.position() + 8 * (RECORD_OVERHEAD + MAX_PAYLOAD) + 4 > compacted.capacity()) {
+            throw new IOException("Compacted journal " + tmp + " is too small");
+          }
+          count += writeState(compacted, bytes, checksum, key, states.get(key));
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        channel = target;
+        buffer = compacted;
+        records = count;
+        target = null;
+        compactions.increment();
+      }
+    } finally {
+      synchronized (this) {
+        dirty = null;
+      }
+      if (target != null) {
+        target.close();
+        Files.deleteIfExists(tmp);
+      }
+    }
+  }
+
+  private static int writeState(ByteBuffer target, byte[] bytes, CRC32 crc, long mac, BulbState state) {
+    int count = 0;
+    if (state.getName() != null) {
+      byte[] name = state.getName().getBytes(StandardCharsets.UTF_8);
+      int length = Math.min(name.length, MAX_PAYLOAD);
+      System.arraycopy(name, 0, bytes, 0, length);
+      write(target, bytes, crc, NAME, mac, length);
+      count++;
+    }
+    if (state.getColor() != null) {
+      state.getColor().encode(bytes, 0);
+      write(target, bytes, crc, COLOR, mac, 4);
+      count++;
+    }
+    if (state.getEffect() != null) {
+      state.getEffect().encode(bytes, 0);
+      write(target, bytes, crc, EFFECT, mac, 8);
+      count++;
+    }
+    if (state.getRandommode() != null) {
+      state.getRandommode().encode(bytes, 0, 0);
+      write(target, bytes, crc, RANDOMMODE, mac, 13);
+      count++;
+    }
+    for (int i = 0; i < 4; i++) {
+      if (state.getTimer(i) != null) {
+        state.getTimer(i).encode(bytes, 0, 0);
+        write(target, bytes, crc, TIMER, mac, 13);
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public synchronized BulbState getState(String mac) {
+    return states.get(DeviceRegistry.normalize(mac));
+  }
+
+  public synchronized Map<String, BulbState> getStates() {
+    Map<String, BulbState> result = new HashMap<>();
+    for (Map.Entry<Long, BulbState> entry : states.entrySet()) {
+      result.put(DeviceRegistry.format(entry.getKey()), entry.getValue());
+    }
+    return result;
+  }
+
+  public ReconcileResult restore(Playbulb playbulb) {
+    BulbState state = getState(playbulb.getAddress());
+    if (state == null) {
+      return new ReconcileResult();
+    }
+    EnumSet<Field> fields = EnumSet.noneOf(Field.class);
+    if (state.getColor() != null) {
+      fields.add(Field.COLOR);
+    }
+    if (state.getEffect() != null) {
+      fields.add(Field.EFFECT);
+    }
+    if (state.getRandommode() != null) {
+      fields.add(Field.RANDOMMODE);
+    }
+    if (state.getName() != null) {
+      fields.add(Field.NAME);
+    }
+    for (int i = 0; i < 4; i++) {
+      if (state.getTimer(i) != null) {
+        fields.add(Field.TIMERS);
+      }
+    }
+    playbulb.read(fields);
+    return playbulb.apply(state);
+  }
+
+  public synchronized void flush() {
+    if (buffer != null) {
+      buffer.force();
+    }
+  }
+
+  public synchronized int getRecords() {
+    return records;
+  }
+
+  public synchronized int size() {
+    return states.size();
+  }
+
+  public synchronized int getBytesUsed() {
+    return buffer.position();
+  }
+
+  public long getReplayMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(replayNanos);
+  }
+
+  public long getAppended() {
+    return appended.sum();
+  }
+
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  public long getCompactions() {
+    return compactions.sum();
+  }
+
+  @Override
+  public synchronized void close() {
+    if (channel == null) {
+      return;
+    }
+    try {
+      buffer.force();
+      channel.close();
+      channel = null;
+    } catch (IOException e) {
+      throw new GattException("Unable to close state journal " + file, e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("StateJournal(devices=%d, records=%d, bytes=%d, compactions=%d, replay=%dms)", size(),
+        getRecords(), getBytesUsed(), getCompactions(), getReplayMillis());
+  }
+
+}
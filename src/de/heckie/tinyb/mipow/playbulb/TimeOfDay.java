@@ -0,0 +1,69 @@
+package de.heckie.tinyb.mipow.playbulb;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+final class TimeOfDay {
+
+  static final Clock SYSTEM_CLOCK = Clock.system(ZoneId.systemDefault());
+
+  private static final int SECONDS_PER_DAY = 86400;
+
+  private static class CachedOffset {
+
+    private final ZoneId zone;
+    private final long validFrom;
+    private final long validUntil;
+    private final int offsetSeconds;
+
+    CachedOffset(ZoneId zone, long validFrom, long validUntil, int offsetSeconds) {
+      this.zone = zone;
+      this.validFrom = validFrom;
+      this.validUntil = validUntil;
+      this.offsetSeconds = offsetSeconds;
+    }
+
+  }
+
+  private static volatile CachedOffset cached = new CachedOffset(null, 0, 0, 0);
+
+  private TimeOfDay() {
+  }
+
+  static int secondOfDay(Clock clock) {
+    long epochSecond = Math.floorDiv(clock.millis(), 1000);
+    ZoneId zone = clock.getZone();
+    CachedOffset offset = cached;
+    if (offset.zone != zone || epochSecond < offset.validFrom || epochSecond >= offset.validUntil) {
+      offset = lookup(zone, epochSecond);
+      cached = offset;
+    }
+    return Math.floorMod(epochSecond + offset.offsetSeconds, SECONDS_PER_DAY);
+  }
+
+  private static CachedOffset lookup(ZoneId zone, long epochSecond) {
+    ZoneRules rules = zone.getRules();
+    Instant instant = Instant.ofEpochSecond(epochSecond);
+    ZoneOffsetTransition previous = rules.previousTransition(instant.plusSeconds(1));
+    ZoneOffsetTransition next = rules.nextTransition(instant);
+    long validFrom = previous != null ? previous.toEpochSecond() : Long.MIN_VALUE;
+    long validUntil = next != null ? next.toEpochSecond() : Long.MAX_VALUE;
+    return new CachedOffset(zone, validFrom, validUntil, rules.getOffset(instant).getTotalSeconds());
+  }
+
+  static int hour(int secondOfDay) {
+    return secondOfDay / 3600;
+  }
+
+  static int minute(int secondOfDay) {
+    return secondOfDay / 60 % 60;
+  }
+
+  static int second(int secondOfDay) {
+    return secondOfDay % 60;
+  }
+
+}
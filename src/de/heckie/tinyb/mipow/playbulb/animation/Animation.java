@@ -0,0 +1,21 @@
+package de.heckie.tinyb.mipow.playbulb.animation;
+
+public interface Animation {
+
+  int colorAt(long nanos);
+
+  default Animation offset(long offsetNanos) {
+    Animation animation = this;
+    return nanos -> animation.colorAt(nanos + offsetNanos);
+  }
+
+  default Animation loop(long periodNanos) {
+    Animation animation = this;
+    return nanos -> animation.colorAt(Math.floorMod(nanos, periodNanos));
+  }
+
+  static Animation constant(int rgbw) {
+    return nanos -> rgbw;
+  }
+
+}
@@ -0,0 +1,104 @@
+package de.heckie.tinyb.mipow.playbulb.animation;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.heckie.tinyb.common.LatencyHistogram;
+
+public class AnimationStats {
+
+  private final String mac;
+  private final LongAdder written = new LongAdder();
+  private final LongAdder unchanged = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LatencyHistogram writeLatency = new LatencyHistogram();
+  private final long targetPeriodNanos;
+  private volatile long startNanos;
+  private volatile long stopNanos;
+  private volatile long framePeriodNanos;
+
+  AnimationStats(String mac, long targetPeriodNanos) {
+    this.mac = mac;
+    this.targetPeriodNanos = targetPeriodNanos;
+  }
+
+  void started(long startNanos) {
+    this.startNanos = startNanos;
+    this.stopNanos = 0;
+  }
+
+  void stopped(long stopNanos) {
+    this.stopNanos = stopNanos;
+  }
+
+  void written(long latencyNanos) {
+    written.increment();
+    writeLatency.record(latencyNanos);
+  }
+
+  void unchanged() {
+    unchanged.increment();
+  }
+
+  void failed() {
+    failed.increment();
+  }
+
+  void framePeriod(long framePeriodNanos) {
+    this.framePeriodNanos = framePeriodNanos;
+  }
+
+  public String getMac() {
+    return mac;
+  }
+
+  public long getFramesWritten() {
+    return written.sum();
+  }
+
+  public long getFramesUnchanged() {
+    return unchanged.sum();
+  }
+
+  public long getFramesDropped() {
+    long expected = getElapsedNanos() / targetPeriodNanos;
+    return Math.max(0, expected - written.sum() - unchanged.sum() - failed.sum());
+  }
+
+  public long getFramesFailed() {
+    return failed.sum();
+  }
+
+  public LatencyHistogram getWriteLatency() {
+    return writeLatency;
+  }
+
+  public long getFramePeriodNanos() {
+    return framePeriodNanos;
+  }
+
+  public long getElapsedNanos() {
+    if (startNanos == 0) {
+      return 0;
+    }
+    long end = stopNanos != 0 ? stopNanos : System.nanoTime();
+    return end - startNanos;
+  }
+
+  public double getAchievedFps() {
+    long elapsed = getElapsedNanos();
+    if (elapsed <= 0) {
+      return 0.0;
+    }
+    return (written.sum() + unchanged.sum()) * 1e9 / elapsed;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "AnimationStats(mac=%s, fps=%.1f, period=%dms, written=%d, unchanged=%d, dropped=%d, failed=%d, latency=%s)",
+        mac, getAchievedFps(), TimeUnit.NANOSECONDS.toMillis(framePeriodNanos), getFramesWritten(),
+        getFramesUnchanged(), getFramesDropped(), getFramesFailed(), writeLatency);
+  }
+
+}
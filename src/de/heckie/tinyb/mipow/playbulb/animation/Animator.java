@@ -0,0 +1,149 @@
+package de.heckie.tinyb.mipow.playbulb.animation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import de.heckie.tinyb.common.GattException;
+import de.heckie.tinyb.mipow.playbulb.Playbulb;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Color;
+
+public class Animator {
+
+  private static final double LATENCY_SMOOTHING = 0.2;
+  private static final double LATENCY_HEADROOM = 1.1;
+
+  private class Channel implements Runnable {
+
+    private final Playbulb playbulb;
+    private final Animation animation;
+    private final AnimationStats stats;
+    private double latencyNanos;
+
+    Channel(Playbulb playbulb, Animation animation) {
+      this.playbulb = playbulb;
+      this.animation = animation;
+      this.stats = new AnimationStats(playbulb.getAddress(), targetPeriodNanos);
+    }
+
+    @Override
+    public void run() {
+      long start = startNanos;
+      stats.started(System.nanoTime());
+      long next = System.nanoTime();
+      int last = 0;
+      boolean first = true;
+
+      while (running) {
+        long frame = System.nanoTime();
+        try {
+          int rgbw = animation.colorAt(frame - start);
+          if (first || rgbw != last) {
+            synchronized (playbulb) {
+              playbulb.setColor(Color.fromPacked(rgbw));
+            }
+            long latency = System.nanoTime() - frame;
+            stats.written(latency);
+            latencyNanos = first ? latency : latencyNanos + LATENCY_SMOOTHING * (latency - latencyNanos);
+            last = rgbw;
+            first = false;
+          } else {
+            stats.unchanged();
+          }
+        } catch (GattException e) {
+          stats.failed();
+        } catch (RuntimeException e) {
+          // a throwing frame or mapper is reported, the animation goes on with the next frame
+          stats.failed();
+          Thread thread = Thread.currentThread();
+          thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+
+        long period = Math.max(targetPeriodNanos, (long) (latencyNanos * LATENCY_HEADROOM));
+        stats.framePeriod(period);
+        next += period;
+        long now = System.nanoTime();
+        if (now > next) {
+          next = now;
+        } else {
+          LockSupport.parkNanos(next - now);
+        }
+      }
+      stats.stopped(System.nanoTime());
+    }
+
+  }
+
+  private final long targetPeriodNanos;
+  private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+  private ExecutorService executor;
+  private volatile boolean running;
+  private volatile long startNanos;
+
+  public Animator(double targetFps) {
+    if (targetFps <= 0) {
+      throw new IllegalArgumentException("Frame rate must be positive");
+    }
+    this.targetPeriodNanos = (long) (1e9 / targetFps);
+  }
+
+  public Animator add(Playbulb playbulb, Animation animation) {
+    if (running) {
+      throw new IllegalStateException("Animator is already running");
+    }
+    channels.put(playbulb.getAddress(), new Channel(playbulb, animation));
+    return this;
+  }
+
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    startNanos = System.nanoTime();
+    executor = Executors.newFixedThreadPool(Math.max(1, channels.size()), r -> {
+      Thread thread = new Thread(r, "playbulb-animator");
+      thread.setDaemon(true);
+      return thread;
+    });
+    for (Channel channel : channels.values()) {
+      executor.execute(channel);
+    }
+  }
+
+  public synchronized void stop() throws InterruptedException {
+    if (!running) {
+      return;
+    }
+    running = false;
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  public double getTargetFps() {
+    return 1e9 / targetPeriodNanos;
+  }
+
+  public AnimationStats getStats(String mac) {
+    Channel channel = channels.get(mac);
+    return channel != null ? channel.stats : null;
+  }
+
+  public List<AnimationStats> getStats() {
+    List<AnimationStats> stats = new ArrayList<>();
+    for (Channel channel : channels.values()) {
+      stats.add(channel.stats);
+    }
+    return stats;
+  }
+
+}
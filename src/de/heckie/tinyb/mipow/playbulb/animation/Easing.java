@@ -0,0 +1,22 @@
+package de.heckie.tinyb.mipow.playbulb.animation;
+
+public enum Easing {
+
+  LINEAR, EASE_IN, EASE_OUT, EASE_IN_OUT, STEP;
+
+  public double apply(double t) {
+    switch (this) {
+    case EASE_IN:
+      return t * t;
+    case EASE_OUT:
+      return t * (2.0 - t);
+    case EASE_IN_OUT:
+      return t < 0.5 ? 2.0 * t * t : -1.0 + (4.0 - 2.0 * t) * t;
+    case STEP:
+      return t < 1.0 ? 0.0 : 1.0;
+    default:
+      return t;
+    }
+  }
+
+}
@@ -0,0 +1,31 @@
+package de.heckie.tinyb.mipow.playbulb.animation;
+
+import java.time.Duration;
+
+import de.heckie.tinyb.mipow.playbulb.Rgbw;
+
+public class Fade implements Animation {
+
+  private final int from;
+  private final int to;
+  private final long durationNanos;
+  private final Easing easing;
+
+  public Fade(int from, int to, Duration duration) {
+    this(from, to, duration, Easing.LINEAR);
+  }
+
+  public Fade(int from, int to, Duration duration, Easing easing) {
+    this.from = from;
+    this.to = to;
+    this.durationNanos = Math.max(1, duration.toNanos());
+    this.easing = easing;
+  }
+
+  @Override
+  public int colorAt(long nanos) {
+    double t = Math.max(0.0, Math.min(1.0, (double) nanos / durationNanos));
+    return Rgbw.interpolate(from, to, easing.apply(t));
+  }
+
+}
@@ -0,0 +1,35 @@
+package de.heckie.tinyb.mipow.playbulb.animation;
+
+import java.time.Duration;
+
+import de.heckie.tinyb.mipow.playbulb.Rgbw;
+
+public class Gradient implements Animation {
+
+  private final int[] stops;
+  private final long periodNanos;
+
+  public Gradient(Duration period, int... stops) {
+    if (stops.length < 2) {
+      throw new IllegalArgumentException("A gradient needs at least two colors");
+    }
+    this.stops = stops.clone();
+    this.periodNanos = Math.max(1, period.toNanos());
+  }
+
+  public int colorAtPosition(double position) {
+    double scaled = (position - Math.floor(position)) * stops.length;
+    int index = (int) scaled;
+    return Rgbw.interpolate(stops[index], stops[(index + 1) % stops.length], scaled - index);
+  }
+
+  public Animation atPosition(double position) {
+    return offset((long) (position * periodNanos));
+  }
+
+  @Override
+  public int colorAt(long nanos) {
+    return colorAtPosition((double) Math.floorMod(nanos, periodNanos) / periodNanos);
+  }
+
+}
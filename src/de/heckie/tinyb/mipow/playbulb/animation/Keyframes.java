@@ -0,0 +1,76 @@
+package de.heckie.tinyb.mipow.playbulb.animation;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import de.heckie.tinyb.mipow.playbulb.Rgbw;
+
+public class Keyframes implements Animation {
+
+  private long[] times = new long[0];
+  private int[] colors = new int[0];
+  private Easing[] easings = new Easing[0];
+
+  public Keyframes add(Duration time, int rgbw) {
+    return add(time, rgbw, Easing.LINEAR);
+  }
+
+  public Keyframes add(Duration time, int rgbw, Easing easing) {
+    long nanos = time.toNanos();
+    int index = Arrays.binarySearch(times, nanos);
+    if (index >= 0) {
+      colors[index] = rgbw;
+      easings[index] = easing;
+      return this;
+    }
+    index = -index - 1;
+    times = insert(times, index, nanos);
+    colors = insert(colors, index, rgbw);
+    Easing[] e = Arrays.copyOf(easings, easings.length + 1);
+    System.arraycopy(easings, index, e, index + 1, easings.length - index);
+    e[index] = easing;
+    easings = e;
+    return this;
+  }
+
+  public long getDurationNanos() {
+    return times.length > 0 ? times[times.length - 1] : 0;
+  }
+
+  @Override
+  public int colorAt(long nanos) {
+    if (times.length == 0) {
+      return 0;
+    }
+    if (nanos <= times[0]) {
+      return colors[0];
+    }
+    int last = times.length - 1;
+    if (nanos >= times[last]) {
+      return colors[last];
+    }
+    int index = Arrays.binarySearch(times, nanos);
+    if (index >= 0) {
+      return colors[index];
+    }
+    int next = -index - 1;
+    int previous = next - 1;
+    double t = (double) (nanos - times[previous]) / (times[next] - times[previous]);
+    return Rgbw.interpolate(colors[previous], colors[next], easings[next].apply(t));
+  }
+
+  private static long[] insert(long[] array, int index, long value) {
+    long[] result = Arrays.copyOf(array, array.length + 1);
+    System.arraycopy(array, index, result, index + 1, array.length - index);
+    result[index] = value;
+    return result;
+  }
+
+  private static int[] insert(int[] array, int index, int value) {
+    int[] result = Arrays.copyOf(array, array.length + 1);
+    System.arraycopy(array, index, result, index + 1, array.length - index);
+    result[index] = value;
+    return result;
+  }
+
+}
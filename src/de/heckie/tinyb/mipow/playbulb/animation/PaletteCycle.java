@@ -0,0 +1,42 @@
+package de.heckie.tinyb.mipow.playbulb.animation;
+
+import java.time.Duration;
+
+import de.heckie.tinyb.mipow.playbulb.Rgbw;
+
+public class PaletteCycle implements Animation {
+
+  private final int[] palette;
+  private final long holdNanos;
+  private final long fadeNanos;
+  private final Easing easing;
+
+  public PaletteCycle(Duration hold, Duration fade, int... palette) {
+    this(hold, fade, Easing.EASE_IN_OUT, palette);
+  }
+
+  public PaletteCycle(Duration hold, Duration fade, Easing easing, int... palette) {
+    if (palette.length == 0) {
+      throw new IllegalArgumentException("A palette needs at least one color");
+    }
+    this.palette = palette.clone();
+    this.holdNanos = hold.toNanos();
+    this.fadeNanos = fade.toNanos();
+    this.easing = easing;
+  }
+
+  @Override
+  public int colorAt(long nanos) {
+    long step = Math.max(1, holdNanos + fadeNanos);
+    long position = Math.floorMod(nanos, step * palette.length);
+    int index = (int) (position / step);
+    long within = position - index * step;
+    int current = palette[index];
+    if (within < holdNanos || fadeNanos == 0) {
+      return current;
+    }
+    double t = (double) (within - holdNanos) / fadeNanos;
+    return Rgbw.interpolate(current, palette[(index + 1) % palette.length], easing.apply(t));
+  }
+
+}
@@ -0,0 +1,153 @@
+package de.heckie.tinyb.mipow.playbulb.audio;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import de.heckie.tinyb.common.LatencyHistogram;
+import de.heckie.tinyb.common.Utils;
+import de.heckie.tinyb.mipow.playbulb.ColorStream;
+import de.heckie.tinyb.mipow.playbulb.Playbulb;
+import tinyb.BluetoothDevice;
+import tinyb.BluetoothManager;
+
+public class AudioReactivePipeline {
+
+  private final PcmReader reader;
+  private final int hopSize;
+  private final BandAnalyzer analyzer;
+  private final ColorMapper mapper;
+  private final FloatRing samples;
+  private final float[] hop;
+  private final float[] window;
+  private final List<ColorStream> streams = new ArrayList<>();
+  private final LatencyHistogram processing = new LatencyHistogram();
+  private volatile boolean running;
+  private long windows;
+  private long overruns;
+
+  public AudioReactivePipeline(PcmReader reader, int windowSize, int hopSize, int bands, ColorMapper mapper) {
+    if (hopSize > windowSize) {
+      throw new IllegalArgumentException("Hop size must not exceed the window size");
+    }
+    this.reader = reader;
+    this.hopSize = hopSize;
+    this.analyzer = new BandAnalyzer(reader.getSampleRate(), windowSize, hopSize, bands);
+    this.mapper = mapper;
+    this.samples = new FloatRing(windowSize);
+    this.hop = new float[hopSize];
+    this.window = new float[windowSize];
+  }
+
+  public AudioReactivePipeline add(Playbulb playbulb) {
+    streams.add(new ColorStream(playbulb));
+    return this;
+  }
+
+  public void run(boolean realtime) throws IOException {
+    running = true;
+    long hopNanos = TimeUnit.SECONDS.toNanos(hopSize) / reader.getSampleRate();
+    long next = System.nanoTime();
+
+    try {
+      while (running) {
+        int filled = 0;
+        while (filled < hopSize) {
+          int n = reader.read(hop, filled, hopSize - filled);
+          if (n < 0) {
+            return;
+          }
+          filled += n;
+        }
+
+        if (realtime) {
+          next += hopNanos;
+          long wait = next - System.nanoTime();
+          if (wait > 0) {
+            LockSupport.parkNanos(wait);
+          } else {
+            next = System.nanoTime();
+          }
+        }
+
+        long captured = System.nanoTime();
+        samples.add(hop, 0, hopSize);
+        samples.copyLatest(window);
+        analyzer.analyze(window);
+        int rgbw = mapper.map(analyzer.getBands(), analyzer.isBeat());
+        for (int i = 0; i < streams.size(); i++) {
+          streams.get(i).offer(rgbw, captured);
+        }
+
+        windows++;
+        if (processing.recordSince(captured) > hopNanos) {
+          overruns++;
+        }
+      }
+    } finally {
+      running = false;
+    }
+  }
+
+  public void stop() {
+    running = false;
+  }
+
+  public void close() throws IOException {
+    stop();
+    for (ColorStream stream : streams) {
+      stream.close();
+    }
+    reader.close();
+  }
+
+  public long getWindows() {
+    return windows;
+  }
+
+  public long getOverruns() {
+    return overruns;
+  }
+
+  public LatencyHistogram getProcessingTime() {
+    return processing;
+  }
+
+  public List<ColorStream> getStreams() {
+    return streams;
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    if (args.length < 2) {
+      System.err.println("Usage: AudioReactivePipeline <file.wav|-> <mac> [<mac> ...]");
+      System.exit(1);
+    }
+
+    InputStream in = new BufferedInputStream("-".equals(args[0]) ? System.in : new FileInputStream(args[0]));
+    PcmReader reader = "-".equals(args[0]) ? PcmReader.raw(in, 44100, 1, 1024) : PcmReader.wav(in, 1024);
+    AudioReactivePipeline pipeline = new AudioReactivePipeline(reader, 2048, 1024, 12, new BandColorMapper());
+
+    BluetoothManager manager = BluetoothManager.getBluetoothManager();
+    for (int i = 1; i < args.length; i++) {
+      BluetoothDevice device = Utils.getDevice(args[i], manager);
+      Utils.connect(device);
+      pipeline.add(new Playbulb(device));
+    }
+
+    pipeline.run(!"-".equals(args[0]));
+    pipeline.close();
+
+    System.out.println(String.format("windows=%d, overruns=%d, processing=%s", pipeline.getWindows(),
+        pipeline.getOverruns(), pipeline.getProcessingTime()));
+    for (ColorStream stream : pipeline.getStreams()) {
+      System.out.println(stream);
+    }
+  }
+
+}
@@ -0,0 +1,100 @@
+package de.heckie.tinyb.mipow.playbulb.audio;
+
+import java.util.Arrays;
+
+public class BandAnalyzer {
+
+  private static final float MIN_FREQUENCY = 40f;
+  private static final float ONSET_SENSITIVITY = 1.5f;
+  private static final float MIN_FLUX = 1e-3f;
+
+  private final Fft fft;
+  private final float[] real;
+  private final float[] imaginary;
+  private final float[] magnitudes;
+  private final float[] previous;
+  private final int[] bandEdges;
+  private final float[] bands;
+  private final FloatRing fluxHistory;
+  private final int refractoryWindows;
+
+  private float flux;
+  private boolean beat;
+  private int sinceBeat;
+
+  public BandAnalyzer(int sampleRate, int windowSize, int hopSize, int bandCount) {
+    this.fft = new Fft(windowSize);
+    this.real = new float[windowSize];
+    this.imaginary = new float[windowSize];
+    this.magnitudes = new float[windowSize / 2];
+    this.previous = new float[windowSize / 2];
+    this.bands = new float[bandCount];
+    this.bandEdges = new int[bandCount + 1];
+
+    float nyquist = sampleRate / 2f;
+    float ratio = (float) Math.pow(nyquist / MIN_FREQUENCY, 1.0 / bandCount);
+    float binWidth = (float) sampleRate / windowSize;
+    for (int i = 0; i <= bandCount; i++) {
+      int bin = Math.round((float) (MIN_FREQUENCY * Math.pow(ratio, i)) / binWidth);
+      bandEdges[i] = Math.max(1, Math.min(magnitudes.length, bin));
+      if (i > 0 && bandEdges[i] <= bandEdges[i - 1]) {
+        bandEdges[i] = Math.min(magnitudes.length, bandEdges[i - 1] + 1);
+      }
+    }
+
+    int windowsPerSecond = Math.max(1, sampleRate / hopSize);
+    this.fluxHistory = new FloatRing(windowsPerSecond);
+    this.refractoryWindows = Math.max(1, windowsPerSecond / 8);
+  }
+
+  public void analyze(float[] window) {
+    System.arraycopy(window, 0, real, 0, real.length);
+    Arrays.fill(imaginary, 0f);
+    fft.applyWindow(real);
+    fft.transform(real, imaginary);
+
+    float scale = 2f / real.length;
+    float currentFlux = 0f;
+    for (int i = 0; i < magnitudes.length; i++) {
+      float magnitude = (float) Math.sqrt(real[i] * real[i] + imaginary[i] * imaginary[i]) * scale;
+      float rise = magnitude - previous[i];
+      if (rise > 0) {
+        currentFlux += rise;
+      }
+      previous[i] = magnitude;
+      magnitudes[i] = magnitude;
+    }
+
+    for (int band = 0; band < bands.length; band++) {
+      float energy = 0f;
+      for (int i = bandEdges[band]; i < bandEdges[band + 1]; i++) {
+        energy += magnitudes[i] * magnitudes[i];
+      }
+      bands[band] = energy;
+    }
+
+    float mean = fluxHistory.mean();
+    float deviation = fluxHistory.standardDeviation(mean);
+    sinceBeat++;
+    beat = fluxHistory.size() == fluxHistory.capacity() && currentFlux > MIN_FLUX
+        && currentFlux > mean + ONSET_SENSITIVITY * deviation && sinceBeat >= refractoryWindows;
+    if (beat) {
+      sinceBeat = 0;
+    }
+    fluxHistory.add(currentFlux);
+    flux = currentFlux;
+  }
+
+  public float[] getBands() {
+    return bands;
+  }
+
+  public float getFlux() {
+    return flux;
+  }
+
+  public boolean isBeat() {
+    return beat;
+  }
+
+}
@@ -0,0 +1,37 @@
+package de.heckie.tinyb.mipow.playbulb.audio;
+
+import de.heckie.tinyb.mipow.playbulb.Rgbw;
+
+public class BandColorMapper implements ColorMapper {
+
+  private static final float PEAK_DECAY = 0.995f;
+  private static final float FLASH_DECAY = 0.7f;
+  private static final float FLOOR = 1e-9f;
+
+  private final float[] peaks = new float[3];
+  private final float[] levels = new float[3];
+  private float flash;
+
+  @Override
+  public int map(float[] bands, boolean beat) {
+    int third = Math.max(1, bands.length / 3);
+    for (int group = 0; group < 3; group++) {
+      int from = Math.min(bands.length - 1, group * third);
+      int to = group == 2 ? bands.length : Math.min(bands.length, from + third);
+      float energy = 0f;
+      for (int i = from; i < to; i++) {
+        energy += bands[i];
+      }
+      peaks[group] = Math.max(energy, Math.max(peaks[group] * PEAK_DECAY, FLOOR));
+      levels[group] = (float) Math.sqrt(energy / peaks[group]);
+    }
+
+    flash = beat ? 1f : flash * FLASH_DECAY;
+    return Rgbw.pack(level(flash), level(levels[0]), level(levels[1]), level(levels[2]));
+  }
+
+  private static int level(float value) {
+    return Math.max(0, Math.min(255, Math.round(value * 255f)));
+  }
+
+}
@@ -0,0 +1,7 @@
+package de.heckie.tinyb.mipow.playbulb.audio;
+
+public interface ColorMapper {
+
+  int map(float[] bands, boolean beat);
+
+}
@@ -0,0 +1,75 @@
+package de.heckie.tinyb.mipow.playbulb.audio;
+
+public class Fft {
+
+  private final int size;
+  private final int[] reversed;
+  private final float[] cos;
+  private final float[] sin;
+  private final float[] window;
+
+  public Fft(int size) {
+    if (size < 2 || Integer.bitCount(size) != 1) {
+      throw new IllegalArgumentException("FFT size must be a power of two");
+    }
+    this.size = size;
+    this.reversed = new int[size];
+    int bits = Integer.numberOfTrailingZeros(size);
+    for (int i = 0; i < size; i++) {
+      reversed[i] = Integer.reverse(i) >>> (32 - bits);
+    }
+    this.cos = new float[size / 2];
+    this.sin = new float[size / 2];
+    for (int i = 0; i < size / 2; i++) {
+      cos[i] = (float) Math.cos(-2 * Math.PI * i / size);
+      sin[i] = (float) Math.sin(-2 * Math.PI * i / size);
+    }
+    this.window = new float[size];
+    for (int i = 0; i < size; i++) {
+      window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / (size - 1)));
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void applyWindow(float[] samples) {
+    for (int i = 0; i < size; i++) {
+      samples[i] *= window[i];
+    }
+  }
+
+  public void transform(float[] real, float[] imaginary) {
+    for (int i = 0; i < size; i++) {
+      int j = reversed[i];
+      if (j > i) {
+        float t = real[i];
+        real[i] = real[j];
+        real[j] = t;
+        t = imaginary[i];
+        imaginary[i] = imaginary[j];
+        imaginary[j] = t;
+      }
+    }
+    for (int length = 2; length <= size; length <<= 1) {
+      int half = length >> 1;
+      int step = size / length;
+      for (int i = 0; i < size; i += length) {
+        for (int j = 0; j < half; j++) {
+          float wr = cos[j * step];
+          float wi = sin[j * step];
+          int a = i + j;
+          int b = a + half;
+          float tr = real[b] * wr - imaginary[b] * wi;
+          float ti = real[b] * wi + imaginary[b] * wr;
+          real[b] = real[a] - tr;
+          imaginary[b] = imaginary[a] - ti;
+          real[a] += tr;
+          imaginary[a] += ti;
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,66 @@
+package de.heckie.tinyb.mipow.playbulb.audio;
+
+public class FloatRing {
+
+  private final float[] values;
+  private int head;
+  private int size;
+
+  public FloatRing(int capacity) {
+    this.values = new float[capacity];
+  }
+
+  public void add(float value) {
+    values[head] = value;
+    head = (head + 1) % values.length;
+    if (size < values.length) {
+      size++;
+    }
+  }
+
+  public void add(float[] source, int offset, int length) {
+    for (int i = 0; i < length; i++) {
+      add(source[offset + i]);
+    }
+  }
+
+  public void copyLatest(float[] destination) {
+    int length = destination.length;
+    int start = Math.floorMod(head - length, values.length);
+    int first = Math.min(length, values.length - start);
+    System.arraycopy(values, start, destination, 0, first);
+    System.arraycopy(values, 0, destination, first, length - first);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int capacity() {
+    return values.length;
+  }
+
+  public float mean() {
+    if (size == 0) {
+      return 0f;
+    }
+    float sum = 0f;
+    for (int i = 0; i < size; i++) {
+      sum += values[i];
+    }
+    return sum / size;
+  }
+
+  public float standardDeviation(float mean) {
+    if (size == 0) {
+      return 0f;
+    }
+    float sum = 0f;
+    for (int i = 0; i < size; i++) {
+      float d = values[i] - mean;
+      sum += d * d;
+    }
+    return (float) Math.sqrt(sum / size);
+  }
+
+}
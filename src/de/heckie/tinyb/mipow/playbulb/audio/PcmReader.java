@@ -0,0 +1,133 @@
+package de.heckie.tinyb.mipow.playbulb.audio;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class PcmReader implements Closeable {
+
+  private final InputStream in;
+  private final int sampleRate;
+  private final int channels;
+  private final int bytesPerSample;
+  private final byte[] buffer;
+
+  private PcmReader(InputStream in, int sampleRate, int channels, int bitsPerSample, int maxFrames) {
+    if (bitsPerSample != 8 && bitsPerSample != 16) {
+      throw new IllegalArgumentException("Only 8 and 16 bit PCM is supported, got " + bitsPerSample);
+    }
+    this.in = in;
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.bytesPerSample = bitsPerSample / 8;
+    this.buffer = new byte[maxFrames * channels * bytesPerSample];
+  }
+
+  public static PcmReader raw(InputStream in, int sampleRate, int channels, int maxFrames) {
+    return new PcmReader(in, sampleRate, channels, 16, maxFrames);
+  }
+
+  public static PcmReader wav(InputStream in, int maxFrames) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if (readTag(data) != 0x52494646) {
+      throw new IOException("Not a RIFF file");
+    }
+    readLittleInt(data);
+    if (readTag(data) != 0x57415645) {
+      throw new IOException("Not a WAVE file");
+    }
+
+    int channels = 0;
+    int sampleRate = 0;
+    int bitsPerSample = 0;
+    while (true) {
+      int tag = readTag(data);
+      int length = readLittleInt(data);
+      if (tag == 0x666d7420) {
+        int format = readLittleShort(data);
+        channels = readLittleShort(data);
+        sampleRate = readLittleInt(data);
+        readLittleInt(data);
+        readLittleShort(data);
+        bitsPerSample = readLittleShort(data);
+        skip(data, length - 16);
+        if (format != 1) {
+          throw new IOException("Only uncompressed PCM is supported, format " + format);
+        }
+      } else if (tag == 0x64617461) {
+        if (channels == 0) {
+          throw new IOException("Missing fmt chunk");
+        }
+        return new PcmReader(in, sampleRate, channels, bitsPerSample, maxFrames);
+      } else {
+        skip(data, length + (length & 1));
+      }
+    }
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  public int getChannels() {
+    return channels;
+  }
+
+  public int read(float[] samples, int offset, int frames) throws IOException {
+    int frameBytes = channels * bytesPerSample;
+    int wanted = Math.min(frames, buffer.length / frameBytes) * frameBytes;
+    int read = 0;
+    while (read < wanted) {
+      int n = in.read(buffer, read, wanted - read);
+      if (n < 0) {
+        break;
+      }
+      read += n;
+    }
+    int count = read / frameBytes;
+    if (count == 0 && read < wanted) {
+      return -1;
+    }
+
+    for (int frame = 0; frame < count; frame++) {
+      float sum = 0f;
+      int base = frame * frameBytes;
+      for (int channel = 0; channel < channels; channel++) {
+        int index = base + channel * bytesPerSample;
+        if (bytesPerSample == 2) {
+          sum += (short) ((buffer[index] & 0xff) | (buffer[index + 1] << 8)) / 32768f;
+        } else {
+          sum += ((buffer[index] & 0xff) - 128) / 128f;
+        }
+      }
+      samples[offset + frame] = sum / channels;
+    }
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private static int readTag(DataInputStream data) throws IOException {
+    return data.readInt();
+  }
+
+  private static int readLittleInt(DataInputStream data) throws IOException {
+    return Integer.reverseBytes(data.readInt());
+  }
+
+  private static int readLittleShort(DataInputStream data) throws IOException {
+    return Short.reverseBytes(data.readShort()) & 0xffff;
+  }
+
+  private static void skip(DataInputStream data, int length) throws IOException {
+    if (length > 0 && data.skipBytes(length) < length) {
+      throw new EOFException();
+    }
+  }
+
+}
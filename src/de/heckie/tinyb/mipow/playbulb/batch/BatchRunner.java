@@ -0,0 +1,321 @@
+package de.heckie.tinyb.mipow.playbulb.batch;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import de.heckie.tinyb.common.CharacteristicCache;
+import de.heckie.tinyb.common.ConnectPolicy;
+import de.heckie.tinyb.common.GattDevice;
+import de.heckie.tinyb.common.LatencyHistogram;
+import de.heckie.tinyb.common.TinybGattDevice;
+import de.heckie.tinyb.common.Utils;
+import de.heckie.tinyb.mipow.playbulb.Playbulb;
+import de.heckie.tinyb.mipow.playbulb.batch.BatchScript.Step;
+import de.heckie.tinyb.mipow.playbulb.sim.LatencyModel;
+import de.heckie.tinyb.mipow.playbulb.sim.SimulatedPlaybulb;
+import tinyb.BluetoothManager;
+
+public class BatchRunner {
+
+  public static interface DeviceSource {
+
+    GattDevice get(String mac) throws Exception;
+
+  }
+
+  public static enum Status {
+    OK, FAILED, SKIPPED
+  }
+
+  public static class StepResult {
+
+    private final Step step;
+    private final Status status;
+    private final long startNanos;
+    private final long durationNanos;
+    private final String error;
+
+    StepResult(Step step, Status status, long startNanos, long durationNanos, String error) {
+      this.step = step;
+      this.status = status;
+      this.startNanos = startNanos;
+      this.durationNanos = durationNanos;
+      this.error = error;
+    }
+
+    public Step getStep() {
+      return step;
+    }
+
+    public Status getStatus() {
+      return status;
+    }
+
+    public long getStartNanos() {
+      return startNanos;
+    }
+
+    public long getDurationNanos() {
+      return durationNanos;
+    }
+
+    public String getError() {
+      return error;
+    }
+
+  }
+
+  public static class Report {
+
+    private final List<StepResult> results;
+    private final LatencyHistogram connects;
+    private final LatencyHistogram commands;
+    private final int devices;
+    private final long elapsedNanos;
+
+    Report(List<StepResult> results, LatencyHistogram connects, LatencyHistogram commands, int devices,
+        long elapsedNanos) {
+      this.results = results;
+      this.connects = connects;
+      this.commands = commands;
+      this.devices = devices;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    public List<StepResult> getResults() {
+      return results;
+    }
+
+    public long count(Status status) {
+      return results.stream().filter(r -> r.status == status).count();
+    }
+
+    public boolean isSuccess() {
+      return count(Status.OK) == results.size();
+    }
+
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    public void print(PrintStream out) {
+      out.println(String.format("%5s  %-17s  %-8s %9s %9s  %s", "line", "mac", "status", "start[ms]", "time[ms]",
+          "command"));
+      for (StepResult r : results) {
+        out.println(String.format("%5d  %-17s  %-8s %9d %9d  %s%s", r.step.getLine(), r.step.getMac(), r.status,
+            TimeUnit.NANOSECONDS.toMillis(r.startNanos), TimeUnit.NANOSECONDS.toMillis(r.durationNanos),
+            r.step.getCommand(), r.error != null ? "  (" + r.error + ")" : ""));
+      }
+      out.println(toString());
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "Report(devices=%d, commands=%d, ok=%d, failed=%d, skipped=%d, elapsed=%dms, connect=%s, command=%s)",
+          devices, results.size(), count(Status.OK), count(Status.FAILED), count(Status.SKIPPED),
+          TimeUnit.NANOSECONDS.toMillis(elapsedNanos), connects, commands);
+    }
+
+  }
+
+  private final DeviceSource devices;
+  private final int parallelism;
+  private volatile ConnectPolicy connectPolicy = ConnectPolicy.DEFAULT;
+  private volatile CharacteristicCache cache;
+  private volatile boolean disconnect = true;
+
+  public BatchRunner(DeviceSource devices, int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("At least one pipeline is required");
+    }
+    this.devices = devices;
+    this.parallelism = parallelism;
+  }
+
+  public void setConnectPolicy(ConnectPolicy connectPolicy) {
+    this.connectPolicy = connectPolicy;
+  }
+
+  public void setCharacteristicCache(CharacteristicCache cache) {
+    this.cache = cache;
+  }
+
+  public void setDisconnect(boolean disconnect) {
+    this.disconnect = disconnect;
+  }
+
+  public Report run(BatchScript script) {
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+      Thread thread = new Thread(r, "playbulb-batch");
+      thread.setDaemon(true);
+      return thread;
+    });
+    LatencyHistogram connects = new LatencyHistogram();
+    LatencyHistogram commands = new LatencyHistogram();
+    long start = System.nanoTime();
+    try {
+      // one pipeline per bulb keeps its commands in order, pipelines of different bulbs run in parallel
+      Map<String, List<Step>> byDevice = script.getStepsByDevice();
+      List<CompletableFuture<List<StepResult>>> pipelines = new ArrayList<>();
+      for (Map.Entry<String, List<Step>> entry : byDevice.entrySet()) {
+        pipelines.add(CompletableFuture.supplyAsync(
+            () -> runPipeline(entry.getKey(), entry.getValue(), start, connects, commands), executor));
+      }
+
+      List<StepResult> results = new ArrayList<>();
+      for (CompletableFuture<List<StepResult>> pipeline : pipelines) {
+        results.addAll(pipeline.join());
+      }
+      results.sort(Comparator.comparingInt((StepResult r) -> r.step.getLine()));
+      return new Report(results, connects, commands, byDevice.size(), System.nanoTime() - start);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private List<StepResult> runPipeline(String mac, List<Step> steps, long origin, LatencyHistogram connects,
+      LatencyHistogram commands) {
+    List<StepResult> results = new ArrayList<>(steps.size());
+    GattDevice device = null;
+    Playbulb playbulb = null;
+    String error = null;
+    long start = System.nanoTime();
+    try {
+      device = devices.get(mac);
+      Utils.connect(device, connectPolicy);
+      playbulb = new Playbulb(device, cache);
+      connects.recordSince(start);
+    } catch (Exception e) {
+      error = "connect: " + message(e);
+    }
+
+    try {
+      for (Step step : steps) {
+        if (playbulb == null) {
+          results.add(new StepResult(step, error != null ? Status.FAILED : Status.SKIPPED, start - origin, 0, error));
+          error = null;
+          continue;
+        }
+        long stepStart = System.nanoTime();
+        long version = playbulb.getSnapshot().getVersion();
+        try {
+          step.apply(playbulb);
+          // a write that the bulb did not accept leaves the snapshot untouched
+          if (playbulb.getSnapshot().getVersion() == version) {
+            throw new IllegalStateException("not acknowledged");
+          }
+          results.add(new StepResult(step, Status.OK, stepStart - origin, commands.recordSince(stepStart), null));
+        } catch (RuntimeException e) {
+          results.add(new StepResult(step, Status.FAILED, stepStart - origin, System.nanoTime() - stepStart,
+              message(e)));
+          // later commands may depend on this one, so the rest of this bulb's pipeline is skipped
+          playbulb = null;
+          start = System.nanoTime();
+        }
+      }
+    } finally {
+      if (device != null && disconnect) {
+        try {
+          Utils.disconnect(device);
+        } catch (Exception e) {
+          // the script result does not depend on a clean disconnect
+        }
+      }
+    }
+    return results;
+  }
+
+  private static String message(Throwable e) {
+    return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    int parallelism = 8;
+    Duration discovery = Duration.ofSeconds(30);
+    String cacheFile = null;
+    boolean simulate = false;
+    boolean quiet = false;
+    String file = null;
+    for (int i = 0; i < args.length; i++) {
+      if ("--parallel".equals(args[i]) && i + 1 < args.length) {
+        parallelism = Integer.parseInt(args[++i]);
+      } else if ("--discovery".equals(args[i]) && i + 1 < args.length) {
+        discovery = Duration.ofSeconds(Long.parseLong(args[++i]));
+      } else if ("--cache".equals(args[i]) && i + 1 < args.length) {
+        cacheFile = args[++i];
+      } else if ("--simulate".equals(args[i])) {
+        simulate = true;
+      } else if ("--quiet".equals(args[i])) {
+        quiet = true;
+      } else {
+        file = args[i];
+      }
+    }
+    if (file == null) {
+      System.err.println("Usage: BatchRunner [--parallel <n>] [--discovery <seconds>] [--cache <file>] [--simulate]"
+          + " [--quiet] <script|->");
+      System.err.println("Script lines:");
+      System.err.println(BatchScript.USAGE);
+      System.exit(1);
+    }
+
+    BatchScript script;
+    try (Reader reader = "-".equals(file) ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+        : new FileReader(file, StandardCharsets.UTF_8)) {
+      script = BatchScript.parse(reader);
+    } catch (IllegalArgumentException | IOException e) {
+      System.err.println(e.getMessage());
+      System.exit(2);
+      return;
+    }
+
+    DeviceSource source;
+    if (simulate) {
+      source = mac -> {
+        SimulatedPlaybulb device = new SimulatedPlaybulb(mac);
+        device.setConnectLatency(LatencyModel.ofMillis(500, 200));
+        device.setReadLatency(LatencyModel.ofMillis(30, 10));
+        device.setWriteLatency(LatencyModel.ofMillis(30, 10));
+        return device;
+      };
+    } else {
+      BluetoothManager manager = BluetoothManager.getBluetoothManager();
+      Duration timeout = discovery;
+      source = mac -> new TinybGattDevice(Utils.waitForDevice(mac, manager, timeout));
+    }
+
+    BatchRunner runner = new BatchRunner(source, parallelism);
+    CharacteristicCache cache = null;
+    if (cacheFile != null) {
+      cache = Playbulb.createCharacteristicCache(Paths.get(cacheFile));
+      runner.setCharacteristicCache(cache);
+    }
+    Report report = runner.run(script);
+    if (cache != null) {
+      cache.flush();
+    }
+    if (quiet) {
+      System.out.println(report);
+    } else {
+      report.print(System.out);
+    }
+    System.exit(report.isSuccess() ? 0 : 3);
+  }
+
+}
@@ -0,0 +1,197 @@
+package de.heckie.tinyb.mipow.playbulb.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import de.heckie.tinyb.common.DeviceRegistry;
+import de.heckie.tinyb.mipow.playbulb.Playbulb;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Color;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Effect;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.EffectType;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Randommode;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Timer;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.TimerType;
+
+public class BatchScript {
+
+  public static final String USAGE = String.join(System.lineSeparator(),
+      "<mac>[,<mac>...] color <white> <red> <green> <blue>",
+      "<mac>[,<mac>...] effect <blink|pulse|disco|rainbow|candle|off> <white> <red> <green> <blue> <delay>",
+      "<mac>[,<mac>...] timer <0-3> <wakeup|doze> <hh:mm> <runtime> <white> <red> <green> <blue>",
+      "<mac>[,<mac>...] timer <0-3> off",
+      "<mac>[,<mac>...] randommode <hh:mm> <hh:mm> <min> <max> <white> <red> <green> <blue>",
+      "<mac>[,<mac>...] name <name>",
+      "<mac>[,<mac>...] read");
+
+  public static class Step {
+
+    private final int line;
+    private final String mac;
+    private final String command;
+    private final Consumer<Playbulb> action;
+
+    Step(int line, String mac, String command, Consumer<Playbulb> action) {
+      this.line = line;
+      this.mac = mac;
+      this.command = command;
+      this.action = action;
+    }
+
+    public int getLine() {
+      return line;
+    }
+
+    public String getMac() {
+      return mac;
+    }
+
+    public String getCommand() {
+      return command;
+    }
+
+    public void apply(Playbulb playbulb) {
+      action.accept(playbulb);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Step(line=%d, mac=%s, command=%s)", line, mac, command);
+    }
+
+  }
+
+  private final List<Step> steps;
+
+  private BatchScript(List<Step> steps) {
+    this.steps = steps;
+  }
+
+  public static BatchScript parse(Reader reader) throws IOException {
+    List<Step> steps = new ArrayList<>();
+    BufferedReader in = new BufferedReader(reader);
+    String text;
+    int line = 0;
+    while ((text = in.readLine()) != null) {
+      line++;
+      int comment = text.indexOf('#');
+      String[] tokens = (comment >= 0 ? text.substring(0, comment) : text).trim().split("\\s+");
+      if (tokens[0].isEmpty()) {
+        continue;
+      }
+      if (tokens.length < 2) {
+        throw new IllegalArgumentException("Line " + line + ": command expected");
+      }
+      try {
+        String command = String.join(" ", Arrays.asList(tokens).subList(1, tokens.length));
+        Consumer<Playbulb> action = parseCommand(tokens);
+        for (String mac : tokens[0].split(",")) {
+          steps.add(new Step(line, DeviceRegistry.format(DeviceRegistry.normalize(mac)), command, action));
+        }
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Line " + line + ": " + e.getMessage(), e);
+      }
+    }
+    return new BatchScript(steps);
+  }
+
+  private static Consumer<Playbulb> parseCommand(String[] tokens) {
+    switch (tokens[1].toLowerCase()) {
+    case "color":
+      expect(tokens, 6);
+      Color color = color(tokens, 2);
+      return p -> p.setColor(color);
+    case "effect":
+      expect(tokens, 8);
+      Effect effect = new Effect(EffectType.valueOf(tokens[2].toUpperCase()), color(tokens, 3),
+          number(tokens[7], 0, 255));
+      return p -> p.setEffect(effect);
+    case "timer":
+      int id = number(tokens.length > 2 ? tokens[2] : "", 0, 3);
+      Timer timer;
+      if (tokens.length == 4 && "off".equalsIgnoreCase(tokens[3])) {
+        timer = new Timer(id, false, TimerType.OFF, 0, 0, 0, new Color(0, 0, 0, 0));
+      } else {
+        expect(tokens, 10);
+        int[] start = time(tokens[4]);
+        timer = new Timer(id, true, TimerType.valueOf(tokens[3].toUpperCase()), start[0], start[1],
+            number(tokens[5], 0, 255), color(tokens, 6));
+      }
+      return p -> p.setTimer(timer);
+    case "randommode":
+      expect(tokens, 10);
+      int[] from = time(tokens[2]);
+      int[] to = time(tokens[3]);
+      Randommode randommode = new Randommode(from[0], from[1], to[0], to[1], number(tokens[4], 0, 255),
+          number(tokens[5], 0, 255), color(tokens, 6));
+      return p -> p.setRandommode(randommode);
+    case "name":
+      if (tokens.length < 3) {
+        throw new IllegalArgumentException("name expected");
+      }
+      String name = String.join(" ", Arrays.asList(tokens).subList(2, tokens.length));
+      return p -> p.setName(name);
+    case "read":
+      expect(tokens, 2);
+      return Playbulb::readAll;
+    default:
+      throw new IllegalArgumentException("unknown command " + tokens[1]);
+    }
+  }
+
+  private static void expect(String[] tokens, int count) {
+    if (tokens.length != count) {
+      throw new IllegalArgumentException(
+          String.format("%s expects %d arguments, got %d", tokens[1], count - 2, tokens.length - 2));
+    }
+  }
+
+  private static Color color(String[] tokens, int offset) {
+    return new Color(number(tokens[offset], 0, 255), number(tokens[offset + 1], 0, 255),
+        number(tokens[offset + 2], 0, 255), number(tokens[offset + 3], 0, 255));
+  }
+
+  private static int number(String token, int min, int max) {
+    try {
+      int value = Integer.parseInt(token);
+      if (value >= min && value <= max) {
+        return value;
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    throw new IllegalArgumentException(String.format("number between %d and %d expected, got %s", min, max, token));
+  }
+
+  private static int[] time(String token) {
+    String[] parts = token.split(":");
+    if (parts.length != 2) {
+      throw new IllegalArgumentException("time hh:mm expected, got " + token);
+    }
+    return new int[] { number(parts[0], 0, 23), number(parts[1], 0, 59) };
+  }
+
+  public List<Step> getSteps() {
+    return Collections.unmodifiableList(steps);
+  }
+
+  public Map<String, List<Step>> getStepsByDevice() {
+    Map<String, List<Step>> byDevice = new LinkedHashMap<>();
+    for (Step step : steps) {
+      byDevice.computeIfAbsent(step.getMac(), m -> new ArrayList<>()).add(step);
+    }
+    return byDevice;
+  }
+
+  public int size() {
+    return steps.size();
+  }
+
+}
@@ -0,0 +1,90 @@
+package de.heckie.tinyb.mipow.playbulb.dmx;
+
+import java.nio.ByteBuffer;
+
+public final class DmxPacket {
+
+  public static final int E131_PORT = 5568;
+  public static final int ARTNET_PORT = 6454;
+
+  public static final int NONE = 0;
+  public static final int E131 = 1;
+  public static final int ARTNET = 2;
+
+  // ANSI E1.31 offsets, the DMX start code precedes the slot data
+  private static final int E131_ROOT_VECTOR = 18;
+  private static final int E131_FRAMING_VECTOR = 40;
+  private static final int E131_SEQUENCE = 111;
+  private static final int E131_OPTIONS = 112;
+  private static final int E131_UNIVERSE = 113;
+  private static final int E131_DMP_VECTOR = 117;
+  private static final int E131_COUNT = 123;
+  private static final int E131_START_CODE = 125;
+  private static final int E131_DATA = 126;
+  private static final int E131_OPTION_PREVIEW = 0x80;
+  private static final int E131_OPTION_TERMINATED = 0x40;
+
+  // Art-Net 4 ArtDmx offsets
+  private static final int ARTNET_OPCODE = 8;
+  private static final int ARTNET_SEQUENCE = 12;
+  private static final int ARTNET_UNIVERSE = 14;
+  private static final int ARTNET_LENGTH = 16;
+  private static final int ARTNET_DATA = 18;
+  private static final int ARTNET_OPDMX = 0x5000;
+
+  private static final long ACN_ID_HIGH = 0x4153432d45312e31L; // "ASC-E1.1"
+  private static final long ACN_ID_LOW = 0x3700000000000000L; // "7\0\0\0" + padding
+  private static final long ARTNET_ID = 0x4172742d4e657400L; // "Art-Net\0"
+
+  private DmxPacket() {
+  }
+
+  // accessors read the packet in place at absolute offsets from its position, preview and terminated
+  // E1.31 streams and non-zero start codes are reported as NONE
+  public static int protocol(ByteBuffer packet) {
+    int base = packet.position();
+    int length = packet.remaining();
+    if (length >= E131_DATA && packet.getLong(base + 4) == ACN_ID_HIGH
+        && (packet.getLong(base + 12) & 0xffffffff00000000L) == ACN_ID_LOW
+        && packet.getInt(base + E131_ROOT_VECTOR) == 0x00000004
+        && packet.getInt(base + E131_FRAMING_VECTOR) == 0x00000002
+        && packet.get(base + E131_DMP_VECTOR) == 0x02 && packet.get(base + E131_START_CODE) == 0
+        && (packet.get(base + E131_OPTIONS) & (E131_OPTION_PREVIEW | E131_OPTION_TERMINATED)) == 0) {
+      return E131;
+    }
+    if (length >= ARTNET_DATA && packet.getLong(base) == ARTNET_ID
+        && Short.reverseBytes(packet.getShort(base + ARTNET_OPCODE)) == ARTNET_OPDMX) {
+      return ARTNET;
+    }
+    return NONE;
+  }
+
+  public static int universe(ByteBuffer packet, int protocol) {
+    int base = packet.position();
+    if (protocol == E131) {
+      return packet.getShort(base + E131_UNIVERSE) & 0xffff;
+    }
+    // 15 bit port address: net, sub-net and universe, stored little endian
+    return Short.reverseBytes(packet.getShort(base + ARTNET_UNIVERSE)) & 0x7fff;
+  }
+
+  public static int sequence(ByteBuffer packet, int protocol) {
+    return packet.get(packet.position() + (protocol == E131 ? E131_SEQUENCE : ARTNET_SEQUENCE)) & 0xff;
+  }
+
+  public static int dataOffset(ByteBuffer packet, int protocol) {
+    return packet.position() + (protocol == E131 ? E131_DATA : ARTNET_DATA);
+  }
+
+  public static int slots(ByteBuffer packet, int protocol) {
+    int base = packet.position();
+    int count;
+    if (protocol == E131) {
+      count = (packet.getShort(base + E131_COUNT) & 0xffff) - 1;
+    } else {
+      count = packet.getShort(base + ARTNET_LENGTH) & 0xffff;
+    }
+    return Math.max(0, Math.min(Math.min(count, 512), packet.limit() - dataOffset(packet, protocol)));
+  }
+
+}
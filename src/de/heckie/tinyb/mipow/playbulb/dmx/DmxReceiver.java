@@ -0,0 +1,377 @@
+package de.heckie.tinyb.mipow.playbulb.dmx;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import de.heckie.tinyb.common.LatencyHistogram;
+import de.heckie.tinyb.common.Utils;
+import de.heckie.tinyb.mipow.playbulb.ColorStream;
+import de.heckie.tinyb.mipow.playbulb.Playbulb;
+import de.heckie.tinyb.mipow.playbulb.Rgbw;
+import de.heckie.tinyb.mipow.playbulb.sim.LatencyModel;
+import de.heckie.tinyb.mipow.playbulb.sim.SimulatedPlaybulb;
+import tinyb.BluetoothDevice;
+import tinyb.BluetoothManager;
+
+public class DmxReceiver implements AutoCloseable {
+
+  public static final int CHANNELS = 4;
+
+  private static final int MAX_PACKET = 638;
+  private static final int SEQUENCE_WINDOW = 20;
+
+  private static class Fixture {
+
+    private final int offset;
+    private final ColorStream stream;
+    private int rgbw;
+    private boolean seen;
+
+    Fixture(int offset, ColorStream stream) {
+      this.offset = offset;
+      this.stream = stream;
+    }
+
+  }
+
+  private static class Universe {
+
+    private final int number;
+    private final Fixture[] fixtures;
+    private final int[] sequences = { -1, -1, -1 };
+
+    Universe(int number, Fixture[] fixtures) {
+      this.number = number;
+      this.fixtures = fixtures;
+    }
+
+    private boolean accept(int protocol, int sequence) {
+      int last = sequences[protocol];
+      sequences[protocol] = sequence;
+      if (last < 0 || (protocol == DmxPacket.ARTNET && sequence == 0)) {
+        return true;
+      }
+      // out of order if the sequence went back by less than the window, see E1.31 section 6.7.2
+      int diff = (byte) (sequence - last);
+      if (diff <= 0 && diff > -SEQUENCE_WINDOW) {
+        sequences[protocol] = last;
+        return false;
+      }
+      return true;
+    }
+
+  }
+
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_PACKET);
+  private final Consumer<SelectionKey> receiver = this::receive;
+  private final List<ColorStream> owned = new ArrayList<>();
+  private final List<DatagramChannel> channels = new ArrayList<>();
+  // copy on write, the receive thread reads it without locking
+  private volatile Universe[] universes = new Universe[0];
+
+  private Selector selector;
+  private Thread thread;
+  private volatile boolean running;
+
+  private final LongAdder packets = new LongAdder();
+  private final LongAdder e131 = new LongAdder();
+  private final LongAdder artnet = new LongAdder();
+  private final LongAdder invalid = new LongAdder();
+  private final LongAdder unmapped = new LongAdder();
+  private final LongAdder outOfSequence = new LongAdder();
+  private final LongAdder changes = new LongAdder();
+  private final LatencyHistogram dispatch = new LatencyHistogram();
+
+  public ColorStream addFixture(int universe, int address, Playbulb playbulb) {
+    ColorStream stream = new ColorStream(playbulb);
+    synchronized (this) {
+      owned.add(stream);
+    }
+    addFixture(universe, address, stream);
+    return stream;
+  }
+
+  public synchronized void addFixture(int universe, int address, ColorStream stream) {
+    if (address < 1 || address + CHANNELS - 1 > 512) {
+      throw new IllegalArgumentException("DMX start address must be between 1 and " + (512 - CHANNELS + 1));
+    }
+    Universe[] current = universes;
+    int index = 0;
+    while (index < current.length && current[index].number != universe) {
+      index++;
+    }
+    Fixture[] fixtures = index < current.length ? current[index].fixtures : new Fixture[0];
+    fixtures = Arrays.copyOf(fixtures, fixtures.length + 1);
+    fixtures[fixtures.length - 1] = new Fixture(address - 1, stream);
+
+    Universe[] next = Arrays.copyOf(current, Math.max(current.length, index + 1));
+    next[index] = new Universe(universe, fixtures);
+    universes = next;
+  }
+
+  public int[] getUniverses() {
+    Universe[] current = universes;
+    int[] numbers = new int[current.length];
+    for (int i = 0; i < current.length; i++) {
+      numbers[i] = current[i].number;
+    }
+    return numbers;
+  }
+
+  public void start() throws IOException {
+    start(new InetSocketAddress(DmxPacket.E131_PORT), new InetSocketAddress(DmxPacket.ARTNET_PORT));
+  }
+
+  public synchronized void start(InetSocketAddress e131Address, InetSocketAddress artnetAddress)
+      throws IOException {
+    if (running) {
+      throw new IllegalStateException("DMX receiver is already running");
+    }
+    selector = Selector.open();
+    for (InetSocketAddress address : new InetSocketAddress[] { e131Address, artnetAddress }) {
+      if (address == null) {
+        continue;
+      }
+      DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+      channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+      channel.setOption(StandardSocketOptions.SO_RCVBUF, 1 << 20);
+      channel.bind(address);
+      channel.configureBlocking(false);
+      channel.register(selector, SelectionKey.OP_READ);
+      channels.add(channel);
+    }
+    running = true;
+    thread = new Thread(this::run, "playbulb-dmx");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MAX_PRIORITY);
+    thread.start();
+  }
+
+  public synchronized void joinMulticast(NetworkInterface networkInterface) throws IOException {
+    if (channels.isEmpty()) {
+      throw new IllegalStateException("DMX receiver is not running");
+    }
+    // E1.31 universes are multicast to 239.255.<universe high byte>.<universe low byte>
+    for (Universe universe : universes) {
+      InetAddress group = InetAddress.getByAddress(
+          new byte[] { (byte) 239, (byte) 255, (byte) (universe.number >> 8), (byte) universe.number });
+      channels.get(0).join(group, networkInterface);
+    }
+  }
+
+  public int getPort(int index) throws IOException {
+    return ((InetSocketAddress) channels.get(index).getLocalAddress()).getPort();
+  }
+
+  private void run() {
+    while (running) {
+      try {
+        selector.select(receiver, 1000);
+      } catch (IOException e) {
+        if (running) {
+          invalid.increment();
+        }
+      }
+    }
+  }
+
+  private void receive(SelectionKey key) {
+    DatagramChannel channel = (DatagramChannel) key.channel();
+    try {
+      buffer.clear();
+      // the channel caches the sender address, a steady source does not allocate per packet
+      while (channel.receive(buffer) != null) {
+        buffer.flip();
+        process(buffer);
+        buffer.clear();
+      }
+    } catch (IOException e) {
+      invalid.increment();
+    }
+  }
+
+  // parses the packet in place and offers changed fixture colors, fixtures are owned by a single caller
+  public int process(ByteBuffer packet) {
+    long start = System.nanoTime();
+    packets.increment();
+    int protocol = DmxPacket.protocol(packet);
+    if (protocol == DmxPacket.NONE) {
+      invalid.increment();
+      return 0;
+    }
+    (protocol == DmxPacket.E131 ? e131 : artnet).increment();
+
+    int number = DmxPacket.universe(packet, protocol);
+    Universe universe = null;
+    for (Universe u : universes) {
+      if (u.number == number) {
+        universe = u;
+        break;
+      }
+    }
+    if (universe == null) {
+      unmapped.increment();
+      return 0;
+    }
+    if (!universe.accept(protocol, DmxPacket.sequence(packet, protocol))) {
+      outOfSequence.increment();
+      return 0;
+    }
+
+    int data = DmxPacket.dataOffset(packet, protocol);
+    int slots = DmxPacket.slots(packet, protocol);
+    int changed = 0;
+    for (Fixture fixture : universe.fixtures) {
+      if (fixture.offset + CHANNELS > slots) {
+        continue;
+      }
+      // fixtures are patched as red, green, blue, white
+      int slot = data + fixture.offset;
+      int rgbw = Rgbw.pack(packet.get(slot + 3), packet.get(slot), packet.get(slot + 1), packet.get(slot + 2));
+      if (fixture.seen && fixture.rgbw == rgbw) {
+        continue;
+      }
+      fixture.rgbw = rgbw;
+      fixture.seen = true;
+      // the stream keeps only the latest value, so each bulb is written as fast as it accepts writes
+      fixture.stream.offer(rgbw, start);
+      changed++;
+    }
+    if (changed > 0) {
+      changes.add(changed);
+    }
+    dispatch.recordSince(start);
+    return changed;
+  }
+
+  public long getPackets() {
+    return packets.sum();
+  }
+
+  public long getE131Packets() {
+    return e131.sum();
+  }
+
+  public long getArtNetPackets() {
+    return artnet.sum();
+  }
+
+  public long getInvalid() {
+    return invalid.sum();
+  }
+
+  public long getUnmapped() {
+    return unmapped.sum();
+  }
+
+  public long getOutOfSequence() {
+    return outOfSequence.sum();
+  }
+
+  public long getChanges() {
+    return changes.sum();
+  }
+
+  public LatencyHistogram getDispatchTime() {
+    return dispatch;
+  }
+
+  @Override
+  public void close() throws IOException {
+    Thread thread;
+    synchronized (this) {
+      running = false;
+      thread = this.thread;
+      this.thread = null;
+      if (selector != null) {
+        selector.wakeup();
+      }
+    }
+    if (thread != null) {
+      try {
+        thread.join(TimeUnit.SECONDS.toMillis(2));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (this) {
+      for (DatagramChannel channel : channels) {
+        channel.close();
+      }
+      channels.clear();
+      if (selector != null) {
+        selector.close();
+        selector = null;
+      }
+      for (ColorStream stream : owned) {
+        stream.close();
+      }
+      owned.clear();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "DmxReceiver(universes=%d, packets=%d, e131=%d, artnet=%d, invalid=%d, unmapped=%d, outOfSequence=%d, changes=%d, dispatch=%s)",
+        universes.length, getPackets(), getE131Packets(), getArtNetPackets(), getInvalid(), getUnmapped(),
+        getOutOfSequence(), getChanges(), dispatch);
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    if (args.length < 1) {
+      System.err.println("Usage: DmxReceiver [--simulate] <universe>/<address>=<mac> ...");
+      System.exit(1);
+    }
+
+    boolean simulate = false;
+    BluetoothManager manager = null;
+    DmxReceiver receiver = new DmxReceiver();
+    for (String arg : args) {
+      if ("--simulate".equals(arg)) {
+        simulate = true;
+        continue;
+      }
+      String[] patch = arg.split("[/=]", 3);
+      if (patch.length != 3) {
+        throw new IllegalArgumentException("Expected <universe>/<address>=<mac>, got " + arg);
+      }
+      Playbulb playbulb;
+      if (simulate) {
+        SimulatedPlaybulb device = new SimulatedPlaybulb(patch[2]);
+        device.setWriteLatency(LatencyModel.ofMillis(30, 10));
+        playbulb = new Playbulb(device);
+      } else {
+        if (manager == null) {
+          manager = BluetoothManager.getBluetoothManager();
+        }
+        BluetoothDevice device = Utils.getDevice(patch[2], manager);
+        Utils.connect(device);
+        playbulb = new Playbulb(device);
+      }
+      receiver.addFixture(Integer.parseInt(patch[0]), Integer.parseInt(patch[1]), playbulb);
+    }
+
+    receiver.start();
+    while (true) {
+      Thread.sleep(10000);
+      System.out.println(receiver);
+    }
+  }
+
+}
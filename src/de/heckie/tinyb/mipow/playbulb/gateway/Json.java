@@ -0,0 +1,315 @@
+package de.heckie.tinyb.mipow.playbulb.gateway;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Json {
+
+  // nesting is parsed recursively, deeper documents are rejected before they exhaust the stack
+  private static final int MAX_DEPTH = 64;
+
+  private final String text;
+  private int position;
+  private int depth;
+
+  private Json(String text) {
+    this.text = text;
+  }
+
+  public static Object parse(String text) {
+    Json json = new Json(text);
+    Object value = json.value();
+    json.whitespace();
+    if (json.position < text.length()) {
+      throw json.error("Unexpected trailing content");
+    }
+    return value;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static Map<String, Object> parseObject(String text) {
+    Object value = parse(text);
+    if (!(value instanceof Map)) {
+      throw new IllegalArgumentException("JSON object expected");
+    }
+    return (Map<String, Object>) value;
+  }
+
+  private Object value() {
+    whitespace();
+    if (position >= text.length()) {
+      throw error("Unexpected end of input");
+    }
+    char c = text.charAt(position);
+    switch (c) {
+    case '{':
+    case '[':
+      if (++depth > MAX_DEPTH) {
+        throw error("Nesting deeper than " + MAX_DEPTH);
+      }
+      Object nested = c == '{' ? object() : array();
+      depth--;
+      return nested;
+    case '"':
+      return string();
+    case 't':
+      return literal("true", Boolean.TRUE);
+    case 'f':
+      return literal("false", Boolean.FALSE);
+    case 'n':
+      return literal("null", null);
+    default:
+      return number();
+    }
+  }
+
+  private Map<String, Object> object() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    position++;
+    whitespace();
+    if (peek('}')) {
+      position++;
+      return map;
+    }
+    while (true) {
+      whitespace();
+      if (!peek('"')) {
+        throw error("Object key expected");
+      }
+      String key = string();
+      whitespace();
+      expect(':');
+      map.put(key, value());
+      whitespace();
+      if (peek(',')) {
+        position++;
+      } else {
+        expect('}');
+        return map;
+      }
+    }
+  }
+
+  private List<Object> array() {
+    List<Object> list = new ArrayList<>();
+    position++;
+    whitespace();
+    if (peek(']')) {
+      position++;
+      return list;
+    }
+    while (true) {
+      list.add(value());
+      whitespace();
+      if (peek(',')) {
+        position++;
+      } else {
+        expect(']');
+        return list;
+      }
+    }
+  }
+
+  private String string() {
+    StringBuilder s = new StringBuilder();
+    position++;
+    while (position < text.length()) {
+      char c = text.charAt(position++);
+      if (c == '"') {
+        return s.toString();
+      }
+      if (c != '\\') {
+        s.append(c);
+        continue;
+      }
+      if (position >= text.length()) {
+        break;
+      }
+      char escaped = text.charAt(position++);
+      switch (escaped) {
+      case 'n':
+        s.append('\n');
+        break;
+      case 'r':
+        s.append('\r');
+        break;
+      case 't':
+        s.append('\t');
+        break;
+      case 'b':
+        s.append('\b');
+        break;
+      case 'f':
+        s.append('\f');
+        break;
+      case 'u':
+        if (position + 4 > text.length()) {
+          throw error("Invalid unicode escape");
+        }
+        s.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+        position += 4;
+        break;
+      default:
+        s.append(escaped);
+      }
+    }
+    throw error("Unterminated string");
+  }
+
+  private Object literal(String literal, Object value) {
+    if (!text.startsWith(literal, position)) {
+      throw error("Unexpected token");
+    }
+    position += literal.length();
+    return value;
+  }
+
+  private Number number() {
+    int start = position;
+    boolean decimal = false;
+    while (position < text.length()) {
+      char c = text.charAt(position);
+      if (c == '.' || c == 'e' || c == 'E') {
+        decimal = true;
+      } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+        break;
+      }
+      position++;
+    }
+    if (start == position) {
+      throw error("Unexpected character");
+    }
+    String number = text.substring(start, position);
+    try {
+      return decimal ? (Number) Double.valueOf(number) : (Number) Long.valueOf(number);
+    } catch (NumberFormatException e) {
+      throw error("Invalid number " + number);
+    }
+  }
+
+  private void whitespace() {
+    while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+      position++;
+    }
+  }
+
+  private boolean peek(char c) {
+    return position < text.length() && text.charAt(position) == c;
+  }
+
+  private void expect(char c) {
+    if (!peek(c)) {
+      throw error("'" + c + "' expected");
+    }
+    position++;
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at position " + position);
+  }
+
+  public static String toJson(Object value) {
+    StringBuilder s = new StringBuilder();
+    write(s, value);
+    return s.toString();
+  }
+
+  public static void write(StringBuilder s, Object value) {
+    if (value == null) {
+      s.append("null");
+    } else if (value instanceof String) {
+      quote(s, (String) value);
+    } else if (value instanceof Number || value instanceof Boolean) {
+      s.append(value);
+    } else if (value instanceof Map) {
+      s.append('{');
+      boolean first = true;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        if (!first) {
+          s.append(',');
+        }
+        quote(s, String.valueOf(entry.getKey()));
+        s.append(':');
+        write(s, entry.getValue());
+        first = false;
+      }
+      s.append('}');
+    } else if (value instanceof Collection) {
+      s.append('[');
+      boolean first = true;
+      for (Object element : (Collection<?>) value) {
+        if (!first) {
+          s.append(',');
+        }
+        write(s, element);
+        first = false;
+      }
+      s.append(']');
+    } else {
+      quote(s, value.toString());
+    }
+  }
+
+  private static void quote(StringBuilder s, String value) {
+    s.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+      case '"':
+        s.append("\\\"");
+        break;
+      case '\\':
+        s.append("\\\\");
+        break;
+      case '\n':
+        s.append("\\n");
+        break;
+      case '\r':
+        s.append("\\r");
+        break;
+      case '\t':
+        s.append("\\t");
+        break;
+      default:
+        if (c < 0x20) {
+          s.append(String.format("\\u%04x", (int) c));
+        } else {
+          s.append(c);
+        }
+      }
+    }
+    s.append('"');
+  }
+
+  static int getInt(Map<String, Object> object, String key, int defaultValue) {
+    Object value = object.get(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    if (!(value instanceof Number)) {
+      throw new IllegalArgumentException("Number expected for " + key);
+    }
+    return ((Number) value).intValue();
+  }
+
+  static String getString(Map<String, Object> object, String key) {
+    Object value = object.get(key);
+    if (value != null && !(value instanceof String)) {
+      throw new IllegalArgumentException("String expected for " + key);
+    }
+    return (String) value;
+  }
+
+  @SuppressWarnings("unchecked")
+  static Map<String, Object> getObject(Map<String, Object> object, String key) {
+    Object value = object.get(key);
+    if (value != null && !(value instanceof Map)) {
+      throw new IllegalArgumentException("Object expected for " + key);
+    }
+    return (Map<String, Object>) value;
+  }
+
+}
@@ -0,0 +1,633 @@
+package de.heckie.tinyb.mipow.playbulb.gateway;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.heckie.tinyb.common.GattException;
+import de.heckie.tinyb.common.GattMetrics;
+import de.heckie.tinyb.common.LatencyHistogram;
+import de.heckie.tinyb.common.Utils;
+import de.heckie.tinyb.mipow.playbulb.AsyncPlaybulb;
+import de.heckie.tinyb.mipow.playbulb.Playbulb;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Color;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Effect;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.EffectType;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Field;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Randommode;
+import de.heckie.tinyb.mipow.playbulb.Playbulb.Timer;
+import de.heckie.tinyb.mipow.playbulb.PlaybulbSnapshot;
+import de.heckie.tinyb.mipow.playbulb.sim.LatencyModel;
+import de.heckie.tinyb.mipow.playbulb.sim.SimulatedPlaybulb;
+import tinyb.BluetoothDevice;
+import tinyb.BluetoothManager;
+
+public class PlaybulbGateway implements AutoCloseable {
+
+  private static final String JSON = "application/json";
+  private static final String TEXT = "text/plain; version=0.0.4";
+  private static final byte[] EMPTY = new byte[0];
+  private static final EnumSet<Field> REFRESH_FIELDS = EnumSet.of(Field.BATTERY_LEVEL, Field.COLOR, Field.EFFECT);
+
+  private static class Rendered {
+
+    private final PlaybulbSnapshot snapshot;
+    private final byte[] json;
+
+    Rendered(PlaybulbSnapshot snapshot, byte[] json) {
+      this.snapshot = snapshot;
+      this.json = json;
+    }
+
+  }
+
+  private static class Bulb {
+
+    private final AsyncPlaybulb playbulb;
+    private final AtomicReference<CompletableFuture<PlaybulbSnapshot>> refresh = new AtomicReference<>();
+    private volatile Rendered rendered;
+
+    Bulb(AsyncPlaybulb playbulb) {
+      this.playbulb = playbulb;
+    }
+
+  }
+
+  private static class Command {
+
+    private final String kind;
+    private final boolean coalesced;
+    private final Function<AsyncPlaybulb, CompletableFuture<Void>> submit;
+
+    Command(String kind, boolean coalesced, Function<AsyncPlaybulb, CompletableFuture<Void>> submit) {
+      this.kind = kind;
+      this.coalesced = coalesced;
+      this.submit = submit;
+    }
+
+  }
+
+  private static class Response {
+
+    private final int status;
+    private final String contentType;
+    private final byte[] body;
+
+    Response(int status, String contentType, byte[] body) {
+      this.status = status;
+      this.contentType = contentType;
+      this.body = body;
+    }
+
+  }
+
+  private static class HttpError extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    HttpError(int status, String message) {
+      super(message);
+      this.status = status;
+    }
+
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final Map<String, Bulb> bulbs = new ConcurrentHashMap<>();
+  private volatile int maxQueueLength = 1024;
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder cachedReads = new LongAdder();
+  private final LongAdder rendered = new LongAdder();
+  private final LongAdder refreshes = new LongAdder();
+  private final LongAdder joinedRefreshes = new LongAdder();
+  private final LongAdder commands = new LongAdder();
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder batchCoalesced = new LongAdder();
+  private final LatencyHistogram latency = new LatencyHistogram();
+
+  public PlaybulbGateway(InetSocketAddress address, int threads) throws IOException {
+    this.executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "playbulb-gateway");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.server = HttpServer.create(address, 1024);
+    this.server.setExecutor(executor);
+    this.server.createContext("/", this::handle);
+  }
+
+  public PlaybulbGateway add(Playbulb playbulb) {
+    AsyncPlaybulb async = new AsyncPlaybulb(playbulb);
+    async.setCoalescing(true);
+    bulbs.put(playbulb.getAddress().toUpperCase(), new Bulb(async));
+    return this;
+  }
+
+  public AsyncPlaybulb get(String mac) {
+    Bulb bulb = bulbs.get(mac.toUpperCase());
+    return bulb != null ? bulb.playbulb : null;
+  }
+
+  public int size() {
+    return bulbs.size();
+  }
+
+  public void setMaxQueueLength(int maxQueueLength) {
+    this.maxQueueLength = maxQueueLength;
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    long start = System.nanoTime();
+    requests.increment();
+    CompletableFuture<Response> response;
+    try (InputStream in = exchange.getRequestBody()) {
+      String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+      response = route(exchange.getRequestMethod(), exchange.getRequestURI(), body);
+    } catch (RuntimeException e) {
+      response = CompletableFuture.failedFuture(e);
+    }
+    // commands complete on the bulb's GATT thread, the response is written from the gateway pool
+    response.whenCompleteAsync((r, e) -> {
+      try {
+        send(exchange, e == null ? r : error(e));
+      } finally {
+        latency.recordSince(start);
+      }
+    }, executor);
+  }
+
+  private static Response json(int status, Object value) {
+    return new Response(status, JSON, Json.toJson(value).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private Response error(Throwable e) {
+    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    int status;
+    if (cause instanceof HttpError) {
+      status = ((HttpError) cause).status;
+    } else if (cause instanceof IllegalArgumentException) {
+      status = 400;
+    } else if (cause instanceof GattException) {
+      status = 502;
+    } else {
+      status = 500;
+    }
+    errors.increment();
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("error", String.valueOf(cause.getMessage()));
+    return json(status, body);
+  }
+
+  private static void send(HttpExchange exchange, Response response) {
+    try {
+      exchange.getResponseHeaders().set("Content-Type", response.contentType);
+      exchange.sendResponseHeaders(response.status, response.body.length > 0 ? response.body.length : -1);
+      if (response.body.length > 0) {
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(response.body);
+        }
+      }
+    } catch (IOException e) {
+      // the client has gone away
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private CompletableFuture<Response> route(String method, URI uri, String body) {
+    String[] path = uri.getPath().replaceAll("^/+|/+$", "").split("/+");
+    switch (path[0]) {
+    case "bulbs":
+      if (path.length == 1) {
+        expect(method, "GET");
+        return CompletableFuture.completedFuture(list());
+      }
+      Bulb bulb = bulbs.get(path[1].toUpperCase());
+      if (bulb == null) {
+        throw new HttpError(404, "Unknown bulb " + path[1]);
+      }
+      if (path.length == 2) {
+        expect(method, "GET");
+        return "true".equals(query(uri, "refresh")) ? refresh(bulb).thenApply(s -> snapshot(bulb))
+            : CompletableFuture.completedFuture(snapshot(bulb));
+      }
+      if (path.length == 3 && "refresh".equals(path[2])) {
+        expect(method, "POST");
+        return refresh(bulb).thenApply(s -> snapshot(bulb));
+      }
+      if (path.length == 3) {
+        expect(method, "PUT", "POST");
+        return command(bulb, path[2], Json.parse(body)).thenApply(v -> new Response(204, JSON, EMPTY));
+      }
+      break;
+    case "batch":
+      expect(method, "POST");
+      return batch(Json.parse(body));
+    case "stats":
+      expect(method, "GET");
+      return CompletableFuture.completedFuture(json(200, getStats()));
+    case "metrics":
+      expect(method, "GET");
+      return CompletableFuture.completedFuture(
+          new Response(200, TEXT, GattMetrics.getDefault().toPrometheus().getBytes(StandardCharsets.UTF_8)));
+    default:
+      break;
+    }
+    throw new HttpError(404, "Not found " + uri.getPath());
+  }
+
+  private static void expect(String method, String... allowed) {
+    for (String m : allowed) {
+      if (m.equals(method)) {
+        return;
+      }
+    }
+    throw new HttpError(405, "Method " + method + " not allowed");
+  }
+
+  private static String query(URI uri, String name) {
+    String query = uri.getQuery();
+    if (query == null) {
+      return null;
+    }
+    for (String parameter : query.split("&")) {
+      int eq = parameter.indexOf('=');
+      if (eq > 0 && parameter.substring(0, eq).equals(name)) {
+        return parameter.substring(eq + 1);
+      }
+    }
+    return null;
+  }
+
+  private Response list() {
+    StringBuilder s = new StringBuilder("[");
+    for (Bulb bulb : bulbs.values()) {
+      if (s.length() > 1) {
+        s.append(',');
+      }
+      s.append(new String(render(bulb), StandardCharsets.UTF_8));
+    }
+    return new Response(200, JSON, s.append(']').toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private Response snapshot(Bulb bulb) {
+    return new Response(200, JSON, render(bulb));
+  }
+
+  private byte[] render(Bulb bulb) {
+    PlaybulbSnapshot snapshot = bulb.playbulb.getPlaybulb().getSnapshot();
+    Rendered current = bulb.rendered;
+    if (current != null && current.snapshot == snapshot) {
+      cachedReads.increment();
+      return current.json;
+    }
+    rendered.increment();
+    byte[] json = Json.toJson(toMap(bulb.playbulb.getPlaybulb().getAddress(), snapshot))
+        .getBytes(StandardCharsets.UTF_8);
+    bulb.rendered = new Rendered(snapshot, json);
+    return json;
+  }
+
+  private CompletableFuture<PlaybulbSnapshot> refresh(Bulb bulb) {
+    while (true) {
+      CompletableFuture<PlaybulbSnapshot> running = bulb.refresh.get();
+      if (running != null) {
+        joinedRefreshes.increment();
+        return running;
+      }
+      CompletableFuture<PlaybulbSnapshot> future = new CompletableFuture<>();
+      if (bulb.refresh.compareAndSet(null, future)) {
+        refreshes.increment();
+        bulb.playbulb.readAsync(REFRESH_FIELDS).whenComplete((snapshot, e) -> {
+          bulb.refresh.compareAndSet(future, null);
+          if (e != null) {
+            future.completeExceptionally(e);
+          } else {
+            future.complete(snapshot);
+          }
+        });
+        return future;
+      }
+    }
+  }
+
+  private CompletableFuture<Void> command(Bulb bulb, String kind, Object body) {
+    if (!(body instanceof Map)) {
+      throw new IllegalArgumentException("JSON object expected");
+    }
+    Command command = toCommand(kind, "name".equals(kind) ? ((Map<?, ?>) body).get("name") : body);
+    commands.increment();
+    return submit(bulb.playbulb, command);
+  }
+
+  private CompletableFuture<Void> submit(AsyncPlaybulb playbulb, Command command) {
+    // coalesced writes replace a pending value, at most one of them per slot reaches the bulb
+    if (!command.coalesced && playbulb.getQueueLength() >= maxQueueLength) {
+      rejected.increment();
+      return CompletableFuture.failedFuture(
+          new HttpError(503, "Command queue of " + playbulb.getPlaybulb().getAddress() + " is full"));
+    }
+    return command.submit.apply(playbulb);
+  }
+
+  private CompletableFuture<Response> batch(Object body) {
+    if (!(body instanceof List)) {
+      throw new IllegalArgumentException("JSON array expected");
+    }
+    batches.increment();
+
+    // commands are grouped per bulb, keeping their order, and a run of the same kind collapses to its last entry
+    Map<Bulb, List<Command>> perBulb = new LinkedHashMap<>();
+    for (Object element : (List<?>) body) {
+      if (!(element instanceof Map)) {
+        throw new IllegalArgumentException("JSON object expected in batch");
+      }
+      @SuppressWarnings("unchecked")
+      Map<String, Object> object = (Map<String, Object>) element;
+      String mac = required(Json.getString(object, "mac"), "mac");
+      Command command = toCommand(object);
+      Collection<Bulb> targets;
+      if ("*".equals(mac)) {
+        targets = bulbs.values();
+      } else {
+        Bulb bulb = bulbs.get(mac.toUpperCase());
+        if (bulb == null) {
+          throw new HttpError(404, "Unknown bulb " + mac);
+        }
+        targets = List.of(bulb);
+      }
+      for (Bulb bulb : targets) {
+        List<Command> list = perBulb.computeIfAbsent(bulb, b -> new ArrayList<>());
+        if (!list.isEmpty() && list.get(list.size() - 1).kind.equals(command.kind)) {
+          list.set(list.size() - 1, command);
+          batchCoalesced.increment();
+        } else {
+          list.add(command);
+        }
+        commands.increment();
+      }
+    }
+
+    List<String> macs = new ArrayList<>();
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (Map.Entry<Bulb, List<Command>> entry : perBulb.entrySet()) {
+      AsyncPlaybulb playbulb = entry.getKey().playbulb;
+      List<Command> list = entry.getValue();
+      macs.add(playbulb.getPlaybulb().getAddress());
+      List<CompletableFuture<Void>> submitted = new ArrayList<>();
+      for (Command command : list) {
+        submitted.add(submit(playbulb, command));
+      }
+      futures.add(CompletableFuture.allOf(submitted.toArray(new CompletableFuture<?>[0])));
+    }
+
+    return CompletableFuture.allOf(futures.stream().map(f -> f.handle((v, e) -> null))
+        .toArray(CompletableFuture<?>[]::new)).thenApply(v -> {
+          List<Object> results = new ArrayList<>();
+          for (int i = 0; i < futures.size(); i++) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("mac", macs.get(i));
+            Throwable e = futures.get(i).handle((r, t) -> t).join();
+            result.put("success", e == null);
+            if (e != null) {
+              result.put("error", String.valueOf((e instanceof CompletionException ? e.getCause() : e).getMessage()));
+            }
+            results.add(result);
+          }
+          return json(200, results);
+        });
+  }
+
+  private static Command toCommand(Map<String, Object> object) {
+    for (String kind : new String[] { "color", "effect", "name" }) {
+      if (object.containsKey(kind)) {
+        return toCommand(kind, object.get(kind));
+      }
+    }
+    throw new IllegalArgumentException("One of color, effect or name expected");
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Command toCommand(String kind, Object value) {
+    switch (kind) {
+    case "color":
+      Color color = toColor((Map<String, Object>) required(value instanceof Map ? value : null, kind));
+      return new Command(kind, true, p -> p.setColorAsync(color));
+    case "effect":
+      Effect effect = toEffect((Map<String, Object>) required(value instanceof Map ? value : null, kind));
+      return new Command(kind, true, p -> p.setEffectAsync(effect));
+    case "name":
+      String name = (String) required(value instanceof String ? value : null, kind);
+      return new Command(kind, false, p -> p.setNameAsync(name));
+    default:
+      throw new HttpError(404, "Unknown command " + kind);
+    }
+  }
+
+  private static <T> T required(T value, String key) {
+    if (value == null) {
+      throw new IllegalArgumentException("Missing " + key);
+    }
+    return value;
+  }
+
+  private static Color toColor(Map<String, Object> object) {
+    return new Color(Json.getInt(object, "white", 0), Json.getInt(object, "red", 0), Json.getInt(object, "green", 0),
+        Json.getInt(object, "blue", 0));
+  }
+
+  private static Effect toEffect(Map<String, Object> object) {
+    EffectType type = EffectType.valueOf(required(Json.getString(object, "type"), "type").toUpperCase());
+    Map<String, Object> color = Json.getObject(object, "color");
+    return new Effect(type, color != null ? toColor(color) : new Color(0, 0, 0, 0), Json.getInt(object, "delay", 0));
+  }
+
+  private static Map<String, Object> toMap(Color color) {
+    if (color == null) {
+      return null;
+    }
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("white", color.getWhite());
+    map.put("red", color.getRed());
+    map.put("green", color.getGreen());
+    map.put("blue", color.getBlue());
+    return map;
+  }
+
+  private static Map<String, Object> toMap(String mac, PlaybulbSnapshot snapshot) {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("mac", mac);
+    map.put("version", snapshot.getVersion());
+    map.put("timestamp", snapshot.getTimestamp().toString());
+    map.put("name", snapshot.getName());
+    map.put("battery", snapshot.getBatteryLevel());
+    map.put("color", toMap(snapshot.getColor()));
+    Effect effect = snapshot.getEffect();
+    if (effect != null) {
+      Map<String, Object> e = new LinkedHashMap<>();
+      e.put("type", effect.getEffectType().name());
+      e.put("color", toMap(effect.getColor()));
+      e.put("delay", effect.getDelay());
+      map.put("effect", e);
+    }
+    Randommode randommode = snapshot.getRandommode();
+    if (randommode != null) {
+      Map<String, Object> r = new LinkedHashMap<>();
+      r.put("start", String.format("%02d:%02d", randommode.getStartingHour(), randommode.getStartingMinute()));
+      r.put("stop", String.format("%02d:%02d", randommode.getEndingHour(), randommode.getEndingMinute()));
+      r.put("minInterval", randommode.getMinInterval());
+      r.put("maxInterval", randommode.getMaxInterval());
+      r.put("color", toMap(randommode.getColor()));
+      map.put("randommode", r);
+    }
+    if (snapshot.getTimers() != null) {
+      List<Object> timers = new ArrayList<>();
+      for (Timer timer : snapshot.getTimers().getTimers()) {
+        if (timer == null) {
+          continue;
+        }
+        Map<String, Object> t = new LinkedHashMap<>();
+        t.put("id", timer.getId());
+        t.put("active", timer.isActive());
+        t.put("type", String.valueOf(timer.getType()));
+        t.put("start", String.format("%02d:%02d", timer.getStartingHour(), timer.getStartingMinute()));
+        t.put("runtime", timer.getRuntime());
+        t.put("color", toMap(timer.getColor()));
+        timers.add(t);
+      }
+      map.put("timers", timers);
+    }
+    return map;
+  }
+
+  public Map<String, Object> getStats() {
+    long submitted = 0;
+    long written = 0;
+    long queued = 0;
+    for (Bulb bulb : bulbs.values()) {
+      submitted += bulb.playbulb.getColorStats().getSubmitted() + bulb.playbulb.getEffectStats().getSubmitted();
+      written += bulb.playbulb.getColorStats().getWritten() + bulb.playbulb.getEffectStats().getWritten();
+      queued += bulb.playbulb.getQueueLength();
+    }
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("bulbs", bulbs.size());
+    stats.put("requests", requests.sum());
+    stats.put("errors", errors.sum());
+    stats.put("rejected", rejected.sum());
+    stats.put("cachedReads", cachedReads.sum());
+    stats.put("renderedReads", rendered.sum());
+    stats.put("refreshes", refreshes.sum());
+    stats.put("joinedRefreshes", joinedRefreshes.sum());
+    stats.put("commands", commands.sum());
+    stats.put("batches", batches.sum());
+    stats.put("batchCoalesced", batchCoalesced.sum());
+    stats.put("submittedWrites", submitted);
+    stats.put("gattWrites", written);
+    stats.put("queued", queued);
+    stats.put("latencyP50Micros", TimeUnit.NANOSECONDS.toMicros(latency.getPercentile(50)));
+    stats.put("latencyP99Micros", TimeUnit.NANOSECONDS.toMicros(latency.getPercentile(99)));
+    return stats;
+  }
+
+  public LatencyHistogram getLatency() {
+    return latency;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("PlaybulbGateway(port=%d, bulbs=%d, requests=%d, errors=%d, latency=%s)", getPort(),
+        size(), requests.sum(), errors.sum(), latency);
+  }
+
+  // small JSON responses otherwise stall on Nagle's algorithm and delayed ACKs. The JDK server reads the
+  // property once, so this only takes effect before the first HttpServer of the process is created
+  public static void enableNoDelay() {
+    if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+
+    enableNoDelay();
+
+    int port = 8080;
+    int threads = 2 * Runtime.getRuntime().availableProcessors();
+    int simulate = 0;
+    List<String> macs = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if ("--port".equals(args[i]) && i + 1 < args.length) {
+        port = Integer.parseInt(args[++i]);
+      } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+        threads = Integer.parseInt(args[++i]);
+      } else if ("--simulate".equals(args[i]) && i + 1 < args.length) {
+        simulate = Integer.parseInt(args[++i]);
+      } else {
+        macs.add(args[i]);
+      }
+    }
+    if (simulate == 0 && macs.isEmpty()) {
+      System.err.println("Usage: PlaybulbGateway [--port <port>] [--threads <n>] (--simulate <bulbs> | <mac> ...)");
+      System.exit(1);
+    }
+
+    PlaybulbGateway gateway = new PlaybulbGateway(new InetSocketAddress(port), threads);
+    for (SimulatedPlaybulb device : SimulatedPlaybulb.createFleet(simulate)) {
+      device.setLatency(LatencyModel.ofMillis(30, 10));
+      device.connect();
+      gateway.add(new Playbulb(device));
+    }
+    if (!macs.isEmpty()) {
+      BluetoothManager manager = BluetoothManager.getBluetoothManager();
+      for (String mac : macs) {
+        BluetoothDevice device = Utils.getDevice(mac, manager);
+        Utils.connect(device);
+        gateway.add(new Playbulb(device));
+      }
+    }
+    gateway.start();
+    System.out.println(gateway);
+  }
+
+}
@@ -0,0 +1,64 @@
+package de.heckie.tinyb.mipow.playbulb.sim;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class LatencyModel {
+
+  public static final LatencyModel NONE = new LatencyModel(0, 0, TimeUnit.MILLISECONDS, 0.0);
+
+  private final long meanNanos;
+  private final long jitterNanos;
+  private final double failureRate;
+
+  public LatencyModel(long mean, long jitter, TimeUnit unit, double failureRate) {
+    if (mean < 0 || jitter < 0) {
+      throw new IllegalArgumentException("Latency and jitter must not be negative");
+    }
+    if (failureRate < 0.0 || failureRate > 1.0) {
+      throw new IllegalArgumentException("Failure rate must be between 0 and 1");
+    }
+    this.meanNanos = unit.toNanos(mean);
+    this.jitterNanos = unit.toNanos(jitter);
+    this.failureRate = failureRate;
+  }
+
+  public static LatencyModel ofMillis(long mean, long jitter) {
+    return new LatencyModel(mean, jitter, TimeUnit.MILLISECONDS, 0.0);
+  }
+
+  public static LatencyModel ofMillis(long mean, long jitter, double failureRate) {
+    return new LatencyModel(mean, jitter, TimeUnit.MILLISECONDS, failureRate);
+  }
+
+  public long getMeanNanos() {
+    return meanNanos;
+  }
+
+  public long getJitterNanos() {
+    return jitterNanos;
+  }
+
+  public double getFailureRate() {
+    return failureRate;
+  }
+
+  long sampleNanos(Random random) {
+    if (jitterNanos == 0) {
+      return meanNanos;
+    }
+    long offset = (long) ((random.nextDouble() * 2.0 - 1.0) * jitterNanos);
+    return Math.max(0, meanNanos + offset);
+  }
+
+  boolean sampleFailure(Random random) {
+    return failureRate > 0.0 && random.nextDouble() < failureRate;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("LatencyModel(mean=%dus, jitter=%dus, failureRate=%.4f)", meanNanos / 1000,
+        jitterNanos / 1000, failureRate);
+  }
+
+}
@@ -0,0 +1,586 @@
+package de.heckie.tinyb.mipow.playbulb.sim;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import de.heckie.tinyb.common.GattCharacteristic;
+import de.heckie.tinyb.common.GattDevice;
+import de.heckie.tinyb.common.GattException;
+import de.heckie.tinyb.common.GattGuard;
+import de.heckie.tinyb.common.GattPolicy;
+import de.heckie.tinyb.mipow.playbulb.Playbulb;
+import de.heckie.tinyb.mipow.playbulb.Rgbw;
+
+public class SimulatedPlaybulb implements GattDevice {
+
+  public static String SERVICE_DEVICE_INFORMATION = "0000180a-0000-1000-8000-00805f9b34fb";
+  public static String SERVICE_BATTERY = "0000180f-0000-1000-8000-00805f9b34fb";
+  public static String SERVICE_PLAYBULB = "0000ff02-0000-1000-8000-00805f9b34fb";
+
+  private static final String[] FLAGS_READ = { "read" };
+  private static final String[] FLAGS_READ_WRITE = { "read", "write" };
+  private static final String[] FLAGS_WRITE = { "write" };
+  private static final String[] FLAGS_READ_NOTIFY = { "read", "notify" };
+  private static final String[] FLAGS_READ_WRITE_NOTIFY = { "read", "write", "notify" };
+
+  private static final ScheduledExecutorService NOTIFIER = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "simulated-playbulb-notifier");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final String address;
+  private final boolean stateNotifications;
+  private volatile String adapterAddress = "00:00:00:00:00:00";
+  private final Map<String, GattCharacteristic> characteristics;
+
+  private volatile LatencyModel connectLatency = LatencyModel.NONE;
+  private volatile LatencyModel serviceResolutionLatency = LatencyModel.NONE;
+  private volatile LatencyModel discoveryLatency = LatencyModel.NONE;
+  private final AtomicInteger enumerations = new AtomicInteger();
+  private volatile LatencyModel readLatency = LatencyModel.NONE;
+  private volatile LatencyModel writeLatency = LatencyModel.NONE;
+  private final Object bearer = new Object();
+  private long bearerFreeNanos;
+
+  private volatile boolean connected;
+  private volatile boolean servicesResolved;
+  private volatile Consumer<Boolean> servicesResolvedCallback;
+  private int connection;
+
+  private byte[] name;
+  private byte[] pin;
+  private int batteryLevel;
+  private byte[] color;
+  private byte[] effect;
+  private byte[] timerSettings;
+  private byte[] runningTimers;
+  private byte[] randommode;
+  private byte[] fffa;
+  private int clockOffsetSeconds;
+
+  private String serialNumber = "BTL201";
+  private String firmwareRevision = "BTL201_v6";
+  private String hardwareRevision = "CSR101x A05";
+  private String softwareRevision = "Application version 2.4.3.26";
+  private String manufacturer = "Mipow Limited";
+  private byte[] pnpId = { 0x01, 0x0a, 0x00, 0x4c, 0x01, 0x00, 0x01 };
+
+  public SimulatedPlaybulb(String address) {
+    this(address, false);
+  }
+
+  public SimulatedPlaybulb(String address, boolean stateNotifications) {
+    this.address = address;
+    this.stateNotifications = stateNotifications;
+    reset();
+    String[] stateFlags = stateNotifications ? FLAGS_READ_WRITE_NOTIFY : FLAGS_READ_WRITE;
+
+    Map<String, GattCharacteristic> characteristics = new LinkedHashMap<>();
+    add(characteristics, Playbulb.CHARACTERISTIC_BATTERY_LEVEL, SERVICE_BATTERY, FLAGS_READ_NOTIFY,
+        () -> new byte[] { (byte) batteryLevel }, null);
+    add(characteristics, Playbulb.CHARACTERISTIC_SERIAL_NUMBER_STRING, SERVICE_DEVICE_INFORMATION, FLAGS_READ,
+        () -> serialNumber.getBytes(), null);
+    add(characteristics, Playbulb.CHARACTERISTIC_FIRMWARE_REVISION_STRING, SERVICE_DEVICE_INFORMATION, FLAGS_READ,
+        () -> firmwareRevision.getBytes(), null);
+    add(characteristics, Playbulb.CHARACTERISTIC_HARDWARE_REVISION_STRING, SERVICE_DEVICE_INFORMATION, FLAGS_READ,
+        () -> hardwareRevision.getBytes(), null);
+    add(characteristics, Playbulb.CHARACTERISTIC_SOFTWARE_REVISION_STRING, SERVICE_DEVICE_INFORMATION, FLAGS_READ,
+        () -> softwareRevision.getBytes(), null);
+    add(characteristics, Playbulb.CHARACTERISTIC_MANUFACTURER_NAME_STRING, SERVICE_DEVICE_INFORMATION, FLAGS_READ,
+        () -> manufacturer.getBytes(), null);
+    add(characteristics, Playbulb.CHARACTERISTIC_PNP_ID, SERVICE_DEVICE_INFORMATION, FLAGS_READ,
+        () -> pnpId.clone(), null);
+    add(characteristics, Playbulb.CHARACTERISTIC_PLAYBULB_PIN, SERVICE_PLAYBULB, FLAGS_READ_WRITE,
+        () -> pin.clone(), this::writePin);
+    add(characteristics, Playbulb.CHARACTERISTIC_PLAYBULB_RUNNING_TIMERS, SERVICE_PLAYBULB, FLAGS_READ,
+        () -> runningTimers.clone(), null);
+    add(characteristics, Playbulb.CHARACTERISTIC_PLAYBULB_RANDOM_MODE, SERVICE_PLAYBULB, stateFlags,
+        this::readRandommode, this::writeRandommode);
+    add(characteristics, Playbulb.CHARACTERISTIC_PLAYBULB_FFFA, SERVICE_PLAYBULB, FLAGS_READ_WRITE,
+        () -> fffa.clone(), this::writeFffa);
+    add(characteristics, Playbulb.CHARACTERISTIC_PLAYBULB_EFFECT, SERVICE_PLAYBULB, stateFlags,
+        () -> effect.clone(), this::writeEffect);
+    add(characteristics, Playbulb.CHARACTERISTIC_PLAYBULB_COLOR, SERVICE_PLAYBULB, stateFlags,
+        () -> color.clone(), this::writeColor);
+    add(characteristics, Playbulb.CHARACTERISTIC_PLAYBULB_FACTORY_RESET, SERVICE_PLAYBULB, FLAGS_WRITE, null,
+        this::writeFactoryReset);
+    add(characteristics, Playbulb.CHARACTERISTIC_PLAYBULB_TIMER_SETTTINGS, SERVICE_PLAYBULB, FLAGS_READ_WRITE,
+        this::readTimerSettings, this::writeTimerSettings);
+    add(characteristics, Playbulb.CHARACTERISTIC_PLAYBULB_GIVEN_NAME, SERVICE_PLAYBULB, FLAGS_READ_WRITE,
+        () -> name.clone(), this::writeName);
+    this.characteristics = Collections.unmodifiableMap(characteristics);
+    // simulated requests never hang, a deadline would only add the worker handoff to every call
+    GattGuard.of(address).setPolicy(GattPolicy.UNBOUNDED);
+  }
+
+  public static List<SimulatedPlaybulb> createFleet(int size) {
+    return createFleet(size, false);
+  }
+
+  public static List<SimulatedPlaybulb> createFleet(int size, boolean stateNotifications) {
+    List<SimulatedPlaybulb> fleet = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      fleet.add(new SimulatedPlaybulb(String.format("5A:50:42:%02X:%02X:%02X", (i >> 16) & 0xff, (i >> 8) & 0xff,
+          i & 0xff), stateNotifications));
+    }
+    return fleet;
+  }
+
+  private void add(Map<String, GattCharacteristic> characteristics, String uuid, String serviceUuid, String[] flags,
+      Supplier<byte[]> reader, Function<byte[], Boolean> writer) {
+    characteristics.put(uuid, new Characteristic(uuid, serviceUuid, flags, reader, writer));
+  }
+
+  private synchronized void reset() {
+    name = "PLAYBULB".getBytes();
+    pin = "0000".getBytes();
+    batteryLevel = 100;
+    color = new byte[] { 0, 0, 0, 0 };
+    effect = new byte[] { 0, 0, 0, 0, (byte) 0xff, 0, 0, 0 };
+    timerSettings = new byte[12];
+    for (int i = 0; i < 4; i++) {
+      timerSettings[i * 3] = 4;
+      timerSettings[i * 3 + 1] = (byte) 0xff;
+    }
+    runningTimers = new byte[20];
+    randommode = new byte[] { 0, 0, 0, (byte) 0xff, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+    fffa = new byte[] { 0 };
+  }
+
+  public void setConnectLatency(LatencyModel connectLatency) {
+    this.connectLatency = connectLatency;
+  }
+
+  public void setReadLatency(LatencyModel readLatency) {
+    this.readLatency = readLatency;
+  }
+
+  public void setWriteLatency(LatencyModel writeLatency) {
+    this.writeLatency = writeLatency;
+  }
+
+  public void setServiceResolutionLatency(LatencyModel serviceResolutionLatency) {
+    this.serviceResolutionLatency = serviceResolutionLatency;
+  }
+
+  public void setDiscoveryLatency(LatencyModel discoveryLatency) {
+    this.discoveryLatency = discoveryLatency;
+  }
+
+  public int getEnumerationCount() {
+    return enumerations.get();
+  }
+
+  public void setLatency(LatencyModel latency) {
+    this.connectLatency = latency;
+    this.readLatency = latency;
+    this.writeLatency = latency;
+  }
+
+  public void setBatteryLevel(int batteryLevel) {
+    byte[] value;
+    synchronized (this) {
+      this.batteryLevel = batteryLevel;
+      value = new byte[] { (byte) batteryLevel };
+    }
+    ((Characteristic) characteristics.get(Playbulb.CHARACTERISTIC_BATTERY_LEVEL)).notify(value);
+  }
+
+  public void setColor(int rgbw) {
+    byte[] bytes = new byte[4];
+    Rgbw.encode(rgbw, bytes, 0);
+    writeColor(bytes);
+  }
+
+  public void setEffect(byte[] effect) {
+    writeEffect(effect);
+  }
+
+  private void notifyState(String uuid, byte[] value) {
+    if (stateNotifications) {
+      ((Characteristic) characteristics.get(uuid)).notify(value.clone());
+    }
+  }
+
+  public synchronized void setClockOffsetSeconds(int clockOffsetSeconds) {
+    this.clockOffsetSeconds = clockOffsetSeconds;
+  }
+
+  public synchronized int getClockOffsetSeconds() {
+    return clockOffsetSeconds;
+  }
+
+  public synchronized void setFirmwareRevision(String firmwareRevision) {
+    this.firmwareRevision = firmwareRevision;
+  }
+
+  @Override
+  public String getAddress() {
+    return address;
+  }
+
+  public void setAdapterAddress(String adapterAddress) {
+    this.adapterAddress = adapterAddress;
+  }
+
+  @Override
+  public String getAdapterAddress() {
+    return adapterAddress;
+  }
+
+  @Override
+  public synchronized String getName() {
+    return new String(name);
+  }
+
+  @Override
+  public boolean connect() {
+    if (connected) {
+      return true;
+    }
+    LatencyModel latency = connectLatency;
+    if (!delay(latency)) {
+      return false;
+    }
+    int current;
+    synchronized (this) {
+      connected = true;
+      current = ++connection;
+    }
+    long resolution = serviceResolutionLatency.sampleNanos(ThreadLocalRandom.current());
+    if (resolution == 0) {
+      resolveServices(current);
+    } else {
+      NOTIFIER.schedule(() -> resolveServices(current), resolution, TimeUnit.NANOSECONDS);
+    }
+    return true;
+  }
+
+  private void resolveServices(int current) {
+    synchronized (this) {
+      if (!connected || current != connection) {
+        return;
+      }
+      servicesResolved = true;
+    }
+    Consumer<Boolean> callback = servicesResolvedCallback;
+    if (callback != null) {
+      NOTIFIER.execute(() -> callback.accept(Boolean.TRUE));
+    }
+  }
+
+  @Override
+  public synchronized boolean disconnect() {
+    connected = false;
+    servicesResolved = false;
+    return true;
+  }
+
+  @Override
+  public void enableServicesResolvedNotifications(Consumer<Boolean> callback) {
+    this.servicesResolvedCallback = callback;
+  }
+
+  @Override
+  public void disableServicesResolvedNotifications() {
+    this.servicesResolvedCallback = null;
+  }
+
+  @Override
+  public boolean getConnected() {
+    return connected;
+  }
+
+  @Override
+  public boolean getServicesResolved() {
+    return servicesResolved;
+  }
+
+  @Override
+  public Map<String, GattCharacteristic> getCharacteristics() {
+    if (!servicesResolved) {
+      return Collections.emptyMap();
+    }
+    enumerations.incrementAndGet();
+    delay(discoveryLatency);
+    return characteristics;
+  }
+
+  @Override
+  public GattCharacteristic findCharacteristic(String serviceUuid, String characteristicUuid) {
+    if (!servicesResolved) {
+      return null;
+    }
+    GattCharacteristic characteristic = characteristics.get(characteristicUuid);
+    if (characteristic == null || !characteristic.getServiceUUID().equals(serviceUuid)) {
+      return null;
+    }
+    return characteristic;
+  }
+
+  private boolean delay(LatencyModel latency) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long nanos = latency.sampleNanos(random);
+    if (nanos > 0) {
+      parkUntil(System.nanoTime() + nanos);
+    }
+    return !latency.sampleFailure(random);
+  }
+
+  // like a real ATT bearer the link handles one request at a time, so requests queue behind each other
+  private boolean request(LatencyModel latency) {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    parkUntil(reserveBearer(latency.sampleNanos(random)));
+    return !latency.sampleFailure(random);
+  }
+
+  private long reserveBearer(long nanos) {
+    synchronized (bearer) {
+      long start = Math.max(System.nanoTime(), bearerFreeNanos);
+      bearerFreeNanos = start + nanos;
+      return bearerFreeNanos;
+    }
+  }
+
+  private void parkUntil(long deadline) {
+    long remaining = deadline - System.nanoTime();
+    while (remaining > 0) {
+      LockSupport.parkNanos(remaining);
+      if (Thread.interrupted()) {
+        Thread.currentThread().interrupt();
+        throw new GattException("Interrupted while waiting for " + address);
+      }
+      remaining = deadline - System.nanoTime();
+    }
+  }
+
+  private void checkConnected() {
+    if (!connected) {
+      throw new GattException("Device " + address + " is not connected");
+    }
+  }
+
+  private int currentSecondOfDay() {
+    int second = LocalTime.now().toSecondOfDay() + clockOffsetSeconds;
+    return Math.floorMod(second, 86400);
+  }
+
+  private void setClock(int hour, int minute, int second) {
+    int target = (hour & 0xff) * 3600 + (minute & 0xff) * 60 + (second & 0xff);
+    clockOffsetSeconds = target - LocalTime.now().toSecondOfDay();
+  }
+
+  private synchronized byte[] readRandommode() {
+    int now = currentSecondOfDay();
+    byte[] bytes = randommode.clone();
+    bytes[0] = (byte) (now % 60);
+    bytes[1] = (byte) (now / 60 % 60);
+    bytes[2] = (byte) (now / 3600);
+    return bytes;
+  }
+
+  private synchronized byte[] readTimerSettings() {
+    int now = currentSecondOfDay();
+    byte[] bytes = Arrays.copyOf(timerSettings, 14);
+    bytes[12] = (byte) (now / 3600);
+    bytes[13] = (byte) (now / 60 % 60);
+    return bytes;
+  }
+
+  private synchronized boolean writePin(byte[] bytes) {
+    if (bytes.length != 4) {
+      return false;
+    }
+    pin = bytes.clone();
+    return true;
+  }
+
+  private synchronized boolean writeFffa(byte[] bytes) {
+    fffa = bytes.clone();
+    return true;
+  }
+
+  private synchronized boolean writeName(byte[] bytes) {
+    if (bytes.length == 0 || bytes.length > 14) {
+      return false;
+    }
+    name = bytes.clone();
+    return true;
+  }
+
+  private synchronized boolean writeColor(byte[] bytes) {
+    if (bytes.length != 4) {
+      return false;
+    }
+    System.arraycopy(bytes, 0, color, 0, 4);
+    System.arraycopy(bytes, 0, effect, 0, 4);
+    effect[4] = (byte) 0xff;
+    notifyState(Playbulb.CHARACTERISTIC_PLAYBULB_COLOR, color);
+    notifyState(Playbulb.CHARACTERISTIC_PLAYBULB_EFFECT, effect);
+    return true;
+  }
+
+  private synchronized boolean writeEffect(byte[] bytes) {
+    if (bytes.length != 8) {
+      return false;
+    }
+    System.arraycopy(bytes, 0, effect, 0, 8);
+    if (bytes[4] == (byte) 0xff) {
+      System.arraycopy(bytes, 0, color, 0, 4);
+      notifyState(Playbulb.CHARACTERISTIC_PLAYBULB_COLOR, color);
+    }
+    notifyState(Playbulb.CHARACTERISTIC_PLAYBULB_EFFECT, effect);
+    return true;
+  }
+
+  private synchronized boolean writeRandommode(byte[] bytes) {
+    if (bytes.length != 13) {
+      return false;
+    }
+    setClock(bytes[2], bytes[1], bytes[0]);
+    randommode = bytes.clone();
+    notifyState(Playbulb.CHARACTERISTIC_PLAYBULB_RANDOM_MODE, readRandommode());
+    return true;
+  }
+
+  private synchronized boolean writeTimerSettings(byte[] bytes) {
+    if (bytes.length != 13) {
+      return false;
+    }
+    int slot = bytes[0] & 0x03;
+    setClock(bytes[4], bytes[3], bytes[2]);
+    timerSettings[slot * 3] = bytes[1];
+    timerSettings[slot * 3 + 1] = bytes[5] == (byte) 0xff ? (byte) 0xff : bytes[7];
+    timerSettings[slot * 3 + 2] = bytes[6];
+    System.arraycopy(bytes, 8, runningTimers, slot * 5, 4);
+    runningTimers[slot * 5 + 4] = bytes[12];
+    return true;
+  }
+
+  private boolean writeFactoryReset(byte[] bytes) {
+    reset();
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("SimulatedPlaybulb(mac=%s, connected=%b)", address, connected);
+  }
+
+  private class Characteristic implements GattCharacteristic {
+
+    private final String uuid;
+    private final String serviceUuid;
+    private final String[] flags;
+    private final Supplier<byte[]> reader;
+    private final Function<byte[], Boolean> writer;
+    private volatile Consumer<byte[]> callback;
+
+    Characteristic(String uuid, String serviceUuid, String[] flags, Supplier<byte[]> reader,
+        Function<byte[], Boolean> writer) {
+      this.uuid = uuid;
+      this.serviceUuid = serviceUuid;
+      this.flags = flags;
+      this.reader = reader;
+      this.writer = writer;
+    }
+
+    @Override
+    public String getUUID() {
+      return uuid;
+    }
+
+    @Override
+    public String getServiceUUID() {
+      return serviceUuid;
+    }
+
+    @Override
+    public String[] getFlags() {
+      return flags.clone();
+    }
+
+    @Override
+    public byte[] readValue() {
+      checkConnected();
+      if (reader == null) {
+        throw new GattException("Characteristic " + uuid + " is not readable");
+      }
+      if (!request(readLatency)) {
+        throw new GattException("Simulated read failure on " + uuid + " of " + address);
+      }
+      return reader.get();
+    }
+
+    @Override
+    public CompletableFuture<byte[]> readValueAsync() {
+      CompletableFuture<byte[]> future = new CompletableFuture<>();
+      if (!connected || reader == null) {
+        future.completeExceptionally(new GattException(!connected ? "Device " + address + " is not connected"
+            : "Characteristic " + uuid + " is not readable"));
+        return future;
+      }
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      long completion = reserveBearer(readLatency.sampleNanos(random));
+      boolean failure = readLatency.sampleFailure(random);
+      NOTIFIER.schedule(() -> {
+        if (failure) {
+          future.completeExceptionally(new GattException("Simulated read failure on " + uuid + " of " + address));
+        } else {
+          future.complete(reader.get());
+        }
+      }, completion - System.nanoTime(), TimeUnit.NANOSECONDS);
+      return future;
+    }
+
+    @Override
+    public boolean writeValue(byte[] value) {
+      checkConnected();
+      if (writer == null) {
+        throw new GattException("Characteristic " + uuid + " is not writable");
+      }
+      if (!request(writeLatency)) {
+        throw new GattException("Simulated write failure on " + uuid + " of " + address);
+      }
+      return writer.apply(value);
+    }
+
+    @Override
+    public void enableValueNotifications(Consumer<byte[]> callback) {
+      if (!Arrays.asList(flags).contains("notify")) {
+        throw new GattException("Characteristic " + uuid + " does not support notifications");
+      }
+      this.callback = callback;
+    }
+
+    @Override
+    public void disableValueNotifications() {
+      this.callback = null;
+    }
+
+    void notify(byte[] value) {
+      Consumer<byte[]> callback = this.callback;
+      if (callback != null && connected) {
+        NOTIFIER.execute(() -> callback.accept(value));
+      }
+    }
+
+  }
+
+}